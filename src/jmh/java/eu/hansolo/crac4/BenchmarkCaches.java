@@ -0,0 +1,65 @@
+package eu.hansolo.crac4;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+
+/**
+ * Creates the caches for the benchmarks in the same way as Main does and
+ * offers the isPrime() method of Main for a given cache.
+ * The initial delay of the clean task is long enough that it will not
+ * interfere with the measurements.
+ */
+final class BenchmarkCaches {
+    public  static final String                  NONE           = "none";
+    public  static final long                    INITIAL_DELAY  = 3_600;
+    public  static final long                    CACHE_TIMEOUT  = 3_600;
+    private static final LongPredicate           PRIME_FUNCTION = Main::calcPrime;
+    private static final Function<Long, Boolean> PRIME_LOADER   = Main::calcPrime;
+
+
+    // ******************** Constructors **************************************
+    private BenchmarkCaches() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns a new cache of the given type or null if the type is "none".
+     * @param type        One of none, generic, bounded, primitive, tiered, sharded or shared
+     * @param maximumSize Maximum size of the bounded and the first tier of the tiered cache
+     * @return a new cache of the given type
+     */
+    static Cache<Long, Boolean> create(final String type, final long maximumSize) {
+        if (NONE.equals(type)) { return null; }
+        return switch (CacheType.fromText(type)) {
+            case BOUNDED   -> new BoundedCache<>(INITIAL_DELAY, CACHE_TIMEOUT, maximumSize);
+            case PRIMITIVE -> new LongBooleanCache(INITIAL_DELAY, CACHE_TIMEOUT);
+            case TIERED    -> new TieredCache<>(INITIAL_DELAY, CACHE_TIMEOUT, maximumSize, CACHE_TIMEOUT, OffHeapCache.DEFAULT_CAPACITY, Codec.BOOLEAN);
+            case SHARDED   -> new ShardedCache<>(INITIAL_DELAY, CACHE_TIMEOUT);
+            case SHARED    -> new SharedCache<>(sharedFile(), CACHE_TIMEOUT, Codec.BOOLEAN.size(Boolean.TRUE), Codec.BOOLEAN);
+            default        -> new GenericCache<>(INITIAL_DELAY, CACHE_TIMEOUT);
+        };
+    }
+
+    // Every shared cache of a benchmark gets it's own file which will be deleted when the fork ends
+    private static Path sharedFile() {
+        try {
+            final Path file = Files.createTempFile("crac4-benchmark", ".shared");
+            file.toFile().deleteOnExit();
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static boolean isPrime(final Cache<Long, Boolean> cache, final long number) {
+        if (number < 1) { return false; }
+        if (null == cache) { return Main.calcPrime(number); }
+        if (cache instanceof LongBooleanCache longBooleanCache) { return longBooleanCache.getOrCompute(number, PRIME_FUNCTION); }
+        return cache.getOrCompute(number, PRIME_LOADER);
+    }
+}
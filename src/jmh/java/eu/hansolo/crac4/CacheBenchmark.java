@@ -0,0 +1,108 @@
+package eu.hansolo.crac4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Throughput of get(), put() and containsKey() of the different cache types.
+ * The cache is filled with all keys before the measurement, the keys that are
+ * requested follow either a uniform or a Zipfian distribution.
+ * putWithEvents() puts into a second cache of the same type which has a no-op
+ * RemovalListener and CacheWriter, so the difference to put() (and the allocation
+ * rate with the gc profiler) is the cost of the CacheEventDispatcher. Only the
+ * generic and the bounded cache support events, for the other types it is the
+ * same as put().
+ * The benchmark runs with 1, 4 and the number of available processors threads,
+ * e.g. ./gradlew jmh -PjmhIncludes=CacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class CacheBenchmark {
+    public  static final int                  KEY_SPACE  = 1 << 16;
+    private static final int                  NO_OF_KEYS = 1 << 20;
+    private static final int                  MASK       = NO_OF_KEYS - 1;
+    private static final AtomicLong           SEEDS      = new AtomicLong(42);
+    @Param({ "generic", "bounded", "primitive", "tiered", "shared" })
+    public               String               cacheType;
+    private              Cache<Long, Boolean> cache;
+    private              Cache<Long, Boolean> eventCache;
+
+
+    // ******************** Setup *********************************************
+    @Setup(Level.Trial) public void setup() {
+        cache = BenchmarkCaches.create(cacheType, KEY_SPACE);
+        for (long key = 0 ; key < KEY_SPACE ; key++) { cache.put(key, key % 2 == 0); }
+
+        eventCache = BenchmarkCaches.create(cacheType, KEY_SPACE);
+        if (eventCache instanceof GenericCache<Long, Boolean> genericCache) {
+            genericCache.setRemovalListener(notifications -> { });
+            genericCache.setCacheWriter(new CacheWriter<>() {
+                @Override public void write(final Map<Long, Boolean> entries) { }
+                @Override public void delete(final Collection<Long> keys) { }
+            });
+        }
+        for (long key = 0 ; key < KEY_SPACE ; key++) { eventCache.put(key, key % 2 == 0); }
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public Optional<Boolean> get(final Keys keys) { return cache.get(keys.next()); }
+
+    @Benchmark public void put(final Keys keys) { cache.put(keys.next(), Boolean.TRUE); }
+
+    @Benchmark public void putWithEvents(final Keys keys) { eventCache.put(keys.next(), Boolean.TRUE); }
+
+    @Benchmark public boolean containsKey(final Keys keys) { return cache.containsKey(keys.next()); }
+
+
+    // ******************** Internal classes **********************************
+    /**
+     * Every thread iterates over it's own array of keys.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        @Param({ KeyGenerator.UNIFORM, KeyGenerator.ZIPF })
+        public  String distribution;
+        private long[] keys;
+        private int    index;
+
+
+        // ******************** Setup *****************************************
+        @Setup(Level.Trial) public void setup() { keys = KeyGenerator.create(distribution, NO_OF_KEYS, KEY_SPACE, SEEDS.getAndIncrement()); }
+
+
+        // ******************** Methods ***************************************
+        long next() { return keys[index++ & MASK]; }
+    }
+
+    @Threads(1)
+    public static class OneThread extends CacheBenchmark { }
+
+    @Threads(4)
+    public static class FourThreads extends CacheBenchmark { }
+
+    @Threads(Threads.MAX)
+    public static class MaxThreads extends CacheBenchmark { }
+}
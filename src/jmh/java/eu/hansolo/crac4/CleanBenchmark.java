@@ -0,0 +1,63 @@
+package eu.hansolo.crac4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of one call to clean() of the GenericCache depending on the number of
+ * entries and the percentage of entries that are due.
+ * Before every call the cache is filled again, the entries that should expire
+ * are put with a deadline in the past and clean() is called with a time that
+ * lies after their deadline but before the deadline of all other entries.
+ * With the timer wheel the cost should follow the number of expired entries
+ * and not the size of the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class CleanBenchmark {
+    @Param({ "10000", "100000", "1000000" })
+    public  int                         size;
+    @Param({ "0", "1", "10", "100" })
+    public  int                         expiredPercentage;
+    private GenericCache<Long, Boolean> cache;
+    private long                        now;
+
+
+    // ******************** Setup *********************************************
+    @Setup(Level.Trial) public void setupTrial() {
+        cache = new GenericCache<>(BenchmarkCaches.INITIAL_DELAY, BenchmarkCaches.CACHE_TIMEOUT, ExpiryPolicy.AFTER_WRITE);
+    }
+
+    @Setup(Level.Invocation) public void setupInvocation() {
+        cache.clear();
+        now = cache.now();
+        final long expired = (long) size * expiredPercentage / 100;
+        for (long key = 0 ; key < size ; key++) {
+            cache.put(key, Boolean.TRUE, key < expired ? now : now + BenchmarkCaches.CACHE_TIMEOUT);
+        }
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public int clean() {
+        cache.clean(now + 2);
+        return cache.size();
+    }
+}
@@ -0,0 +1,295 @@
+package eu.hansolo.crac4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Multi-threaded stress test for the expiry after access (ExpiryPolicy.AFTER_ACCESS)
+ * of the GenericCache and the LongBooleanCache.
+ * N reader threads read the same keys while a ticker thread advances the clock of
+ * the cache (one second every TICK_TIME milliseconds) and clean() runs all the time. The clock is
+ * driven by the test by overriding now() of the caches, so every reader knows the
+ * second in which it touched a key.
+ * Every second reader is a laggard that sometimes pauses in now() after it read the
+ * clock, like a thread that is preempted between reading the clock and touching the
+ * key. It's touch arrives with an older second after other readers touched the key
+ * with a newer one, which provokes the lost and backward updates also on machines
+ * with only a few cores.
+ * Checks:
+ * - the expiration time of a key never goes backwards (checked by a monitor thread
+ *   during the rounds)
+ * - after every round the expiration time equals the last second in which the key was
+ *   read (or put) plus the cacheTimeout, which means that no touch got lost
+ * - a key is only expired if it was not touched within the cacheTimeout
+ * - a key that is never read is removed by the first clean() after it's expiration
+ *   time. A writer puts such keys all the time with an expiration time around the
+ *   current second (like the keys of a snapshot that are loaded shortly before they
+ *   expire), so they are scheduled in the bucket that the next clean() visits. A key
+ *   that is added to a bucket after clean() visited it would stay in the cache for a
+ *   whole revolution of the timer wheel. A key that expired before the put returned
+ *   has to be removed by the first clean() after the put. The LongBooleanCache can not put a key with
+ *   a given expiration time, it gets the cacheTimeout.
+ * A round takes less seconds of the clock than the cacheTimeout, so keys only expire
+ * if the readers did not get any cpu time for a whole round. Such keys are put again
+ * after the round.
+ * Run it with ./gradlew expiryStressTest --args="[readers] [rounds]"
+ */
+public final class ExpiryStressTest {
+    private static final int                 NO_OF_KEYS    = 64;
+    private static final long                UNREAD_OFFSET = 1L << 32;
+    private static final long                CACHE_TIMEOUT = 20;
+    private static final long                TICK_TIME     = 5;
+    private static final long                ROUND_TIME    = 50;
+    private static final AtomicLong          CLOCK         = new AtomicLong(1_000);
+    private static final ThreadLocal<long[]> LAST_NOW      = ThreadLocal.withInitial(() -> new long[1]);
+    private static final ThreadLocal<Random> LAGGARD       = new ThreadLocal<>();
+    private final        Target              target;
+    private final        int                 noOfReaders;
+    private final        long[]              lastTouch;
+    private final        long[]              lastDeadline;
+    private final        AtomicLong          violations;
+    private final        List<long[]>        unread;
+    private              long                nextUnread;
+    private              long                expired;
+    private              long                checked;
+    private volatile     boolean             running;
+
+
+    // ******************** Constructors **************************************
+    private ExpiryStressTest(final Target target, final int noOfReaders) {
+        this.target       = target;
+        this.noOfReaders  = noOfReaders;
+        this.lastTouch    = new long[NO_OF_KEYS];
+        this.lastDeadline = new long[NO_OF_KEYS];
+        this.violations   = new AtomicLong();
+        this.unread       = new ArrayList<>();
+        this.nextUnread   = UNREAD_OFFSET;
+    }
+
+
+    // ******************** Methods *******************************************
+    public static void main(final String[] args) throws Exception {
+        final int noOfReaders = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        final int noOfRounds  = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        long violations = 0;
+        violations += new ExpiryStressTest(new GenericTarget(), noOfReaders).run(noOfRounds);
+        violations += new ExpiryStressTest(new PrimitiveTarget(), noOfReaders).run(noOfRounds);
+        System.out.println(0 == violations ? "PASSED" : "FAILED with " + violations + " violations");
+        System.exit(0 == violations ? 0 : 1);
+    }
+
+    private long run(final int noOfRounds) throws Exception {
+        final long start = System.nanoTime();
+        for (int key = 0 ; key < NO_OF_KEYS ; key++) { put(key); }
+        final ExecutorService executor = Executors.newFixedThreadPool(noOfReaders + 4);
+        try {
+            for (int round = 0 ; round < noOfRounds ; round++) {
+                final List<Callable<Void>> tasks   = new ArrayList<>();
+                final List<long[]>         touches = new ArrayList<>();
+                for (int i = 0 ; i < noOfReaders ; i++) {
+                    final long[] touched = new long[NO_OF_KEYS];
+                    final int    offset  = i * NO_OF_KEYS / noOfReaders;
+                    touches.add(touched);
+                    final boolean laggard = 1 == i % 2;
+                    tasks.add(() -> read(touched, offset, laggard));
+                }
+                tasks.add(() -> tick());
+                tasks.add(() -> write());
+                tasks.add(() -> clean());
+                tasks.add(() -> monitor());
+                running = true;
+                final List<Future<Void>> futures = new ArrayList<>();
+                for (Callable<Void> task : tasks) { futures.add(executor.submit(task)); }
+                Thread.sleep(ROUND_TIME);
+                running = false;
+                for (Future<Void> future : futures) { future.get(); }
+                for (long[] touched : touches) {
+                    for (int key = 0 ; key < NO_OF_KEYS ; key++) { lastTouch[key] = Math.max(lastTouch[key], touched[key]); }
+                }
+                verify(round);
+                verifyUnread(round);
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        System.out.println(target.name() + ": " + noOfReaders + " readers, " + noOfRounds + " rounds, " + checked + " deadlines checked, "
+                           + expired + " keys expired, " + (nextUnread - UNREAD_OFFSET) + " unread keys, " + violations.get() + " violations (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+        return violations.get();
+    }
+
+    private Void read(final long[] touched, final int offset, final boolean laggard) {
+        // The threads of the executor are reused for the other tasks
+        LAGGARD.set(laggard ? new Random(offset) : null);
+        try {
+            while (running) {
+                for (int i = 0 ; i < NO_OF_KEYS ; i++) {
+                    final int key = (offset + i) % NO_OF_KEYS;
+                    // now() of the cache stores the second of the touch in LAST_NOW
+                    if (target.read(key)) { touched[key] = Math.max(touched[key], LAST_NOW.get()[0]); }
+                }
+            }
+        } finally {
+            LAGGARD.remove();
+        }
+        return null;
+    }
+
+    // Only one writer, the list of unread keys is read after the round
+    private Void write() {
+        final Random random = new Random(nextUnread);
+        while (running) {
+            final long key = nextUnread++;
+            target.putExpiring(key, CLOCK.get() + random.nextInt(4) - 1);
+            // The second after the put, the key can not be scheduled before the next one
+            unread.add(new long[] { key, CLOCK.get() });
+            LockSupport.parkNanos(10_000);
+        }
+        return null;
+    }
+
+    private Void tick() throws InterruptedException {
+        while (running) {
+            CLOCK.incrementAndGet();
+            Thread.sleep(TICK_TIME);
+        }
+        return null;
+    }
+
+    private Void clean() {
+        while (running) { target.clean(); }
+        return null;
+    }
+
+    private Void monitor() {
+        while (running) {
+            for (int key = 0 ; key < NO_OF_KEYS ; key++) {
+                final long deadline = target.deadline(key);
+                if (deadline < 0) { continue; }
+                if (deadline < lastDeadline[key]) { violation("deadline of key " + key + " went backwards from " + lastDeadline[key] + " to " + deadline); }
+                lastDeadline[key] = deadline;
+            }
+        }
+        return null;
+    }
+
+    private void verify(final int round) {
+        for (int key = 0 ; key < NO_OF_KEYS ; key++) {
+            final long deadline = target.deadline(key);
+            if (deadline < 0) {
+                // A key may only expire if it was not touched within the cacheTimeout
+                if (CLOCK.get() <= lastTouch[key] + CACHE_TIMEOUT) { violation("round " + round + ": key " + key + " expired before " + (lastTouch[key] + CACHE_TIMEOUT)); }
+                expired++;
+                put(key);
+                continue;
+            }
+            checked++;
+            final long expected = lastTouch[key] + CACHE_TIMEOUT;
+            if (deadline != expected) { violation("round " + round + ": deadline of key " + key + " is " + deadline + " but expected " + expected); }
+        }
+    }
+
+    private void verifyUnread(final int round) {
+        /*
+         * The clock stands still between the rounds, clean() has to remove every key that expired
+         * before now. A key that was put with a deadline whose bucket was already visited is added
+         * to the bucket of the next second after the put, so it might stay a bit longer.
+         */
+        target.clean();
+        final long now = CLOCK.get();
+        unread.removeIf(entry -> {
+            final long deadline = target.deadline(entry[0]);
+            if (deadline < 0) { return true; }
+            final boolean due = Math.max(deadline, entry[1]) + 1 <= now;
+            if (due) { violation("round " + round + ": key " + entry[0] + " expired at " + deadline + " but is still in the cache at " + now); }
+            return due;
+        });
+    }
+
+    private void put(final int key) {
+        target.put(key);
+        lastTouch[key]    = CLOCK.get();
+        lastDeadline[key] = lastTouch[key] + CACHE_TIMEOUT;
+    }
+
+    private void violation(final String message) {
+        // Only print the first violations, the count is in the summary
+        if (violations.incrementAndGet() <= 10) { System.out.println(target.name() + ": " + message); }
+    }
+
+    private static long now() {
+        final long   now     = CLOCK.get();
+        final Random laggard = LAGGARD.get();
+        // Pause for up to two ticks in every 16th call, the clock moves on in the meantime
+        if (null != laggard && 0 == laggard.nextInt(16)) { LockSupport.parkNanos(laggard.nextInt((int) TimeUnit.MILLISECONDS.toNanos(2 * TICK_TIME))); }
+        LAST_NOW.get()[0] = now;
+        return now;
+    }
+
+
+    // ******************** Internal classes **********************************
+    private interface Target {
+        String name();
+
+        void put(long key);
+
+        // Puts a key that will never be read and expires at the given second
+        void putExpiring(long key, long outdatedAt);
+
+        // Returns true if the key was found, which means it has been touched
+        boolean read(long key);
+
+        // Returns the expiration time of the key or -1 if the key is not in the cache
+        long deadline(long key);
+
+        void clean();
+    }
+
+    private static final class GenericTarget implements Target {
+        private final GenericCache<Long, Boolean> cache = new GenericCache<>(GenericCache.DEFAULT_CACHE_DELAY, CACHE_TIMEOUT, ExpiryPolicy.AFTER_ACCESS) {
+            @Override protected long now() { return ExpiryStressTest.now(); }
+        };
+
+        @Override public String name() { return "GenericCache"; }
+
+        @Override public void put(final long key) { cache.put(key, Boolean.TRUE); }
+
+        @Override public void putExpiring(final long key, final long outdatedAt) { cache.put(key, Boolean.TRUE, outdatedAt); }
+
+        @Override public boolean read(final long key) { return cache.get(key).isPresent(); }
+
+        @Override public long deadline(final long key) {
+            final GenericCache<Long, Boolean>.CacheValue<Boolean> cacheValue = cache.map.get(key);
+            return null == cacheValue ? -1 : cacheValue.getOutdatedAt();
+        }
+
+        @Override public void clean() { cache.clean(); }
+    }
+
+    private static final class PrimitiveTarget implements Target {
+        private final LongBooleanCache cache = new LongBooleanCache(GenericCache.DEFAULT_CACHE_DELAY, CACHE_TIMEOUT, ExpiryPolicy.AFTER_ACCESS, 1024) {
+            @Override protected long now() { return ExpiryStressTest.now(); }
+        };
+
+        @Override public String name() { return "LongBooleanCache"; }
+
+        @Override public void put(final long key) { cache.put(key, true); }
+
+        @Override public void putExpiring(final long key, final long outdatedAt) { cache.put(key, true); }
+
+        @Override public boolean read(final long key) { return cache.containsKey(key); }
+
+        @Override public long deadline(final long key) { return cache.getOutdatedAt(key); }
+
+        @Override public void clean() { cache.clean(); }
+    }
+}
@@ -0,0 +1,83 @@
+package eu.hansolo.crac4;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Hit rate of the different cache types under a uniform and a Zipfian key
+ * distribution. Every miss puts the key into the cache. The hits and misses
+ * are reported as secondary results, the hit rate is hits / (hits + misses).
+ * The key space is larger than the maximum size, so only the bounded and the
+ * tiered cache have to decide which entries to keep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class HitRateBenchmark {
+    private static final int                  KEY_SPACE  = 100_000;
+    private static final int                  NO_OF_KEYS = 1 << 22;
+    private static final int                  MASK       = NO_OF_KEYS - 1;
+    @Param({ "generic", "bounded", "primitive", "tiered" })
+    public               String               cacheType;
+    @Param({ KeyGenerator.UNIFORM, KeyGenerator.ZIPF })
+    public               String               distribution;
+    @Param({ "1000", "10000" })
+    public               long                 maximumSize;
+    private              Cache<Long, Boolean> cache;
+    private              long[]               keys;
+    private              int                  index;
+
+
+    // ******************** Setup *********************************************
+    @Setup(Level.Trial) public void setup() {
+        cache = BenchmarkCaches.create(cacheType, maximumSize);
+        keys  = KeyGenerator.create(distribution, NO_OF_KEYS, KEY_SPACE, 42);
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public void getOrPut(final Counters counters) {
+        final long key = keys[index++ & MASK];
+        if (cache.get(key).isPresent()) {
+            counters.hits++;
+        } else {
+            counters.misses++;
+            cache.put(key, Boolean.TRUE);
+        }
+    }
+
+
+    // ******************** Internal classes **********************************
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long hits;
+        public long misses;
+
+
+        // ******************** Setup *****************************************
+        @Setup(Level.Iteration) public void reset() {
+            hits   = 0;
+            misses = 0;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package eu.hansolo.crac4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * The KeyGenerator creates arrays of keys in advance so that the generation
+ * of the keys is not part of the measurement.
+ * Uniform keys are equally likely, Zipfian keys follow a power law where
+ * the key of rank k is requested with a probability proportional to 1/k^s
+ * which is close to the access pattern of most real world caches.
+ */
+final class KeyGenerator {
+    public static final String UNIFORM  = "uniform";
+    public static final String ZIPF     = "zipf";
+    public static final double EXPONENT = 1.0;
+
+
+    // ******************** Constructors **************************************
+    private KeyGenerator() {}
+
+
+    // ******************** Methods *******************************************
+    static long[] create(final String distribution, final int count, final int keySpace, final long seed) {
+        return switch (distribution) {
+            case UNIFORM -> uniform(count, keySpace, seed);
+            case ZIPF    -> zipf(count, keySpace, EXPONENT, seed);
+            default      -> throw new IllegalArgumentException("Unknown distribution " + distribution);
+        };
+    }
+
+    static long[] uniform(final int count, final int keySpace, final long seed) {
+        final Random random = new Random(seed);
+        final long[] keys   = new long[count];
+        for (int i = 0 ; i < count ; i++) { keys[i] = random.nextInt(keySpace); }
+        return keys;
+    }
+
+    static long[] zipf(final int count, final int keySpace, final double exponent, final long seed) {
+        // Cumulative distribution of the ranks 1..keySpace
+        final double[] cdf = new double[keySpace];
+        double         sum = 0;
+        for (int i = 0 ; i < keySpace ; i++) {
+            sum   += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        final Random random = new Random(seed);
+        final long[] keys   = new long[count];
+        for (int i = 0 ; i < count ; i++) {
+            final int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            keys[i] = index < 0 ? Math.min(keySpace - 1, -index - 1) : index;
+        }
+        return keys;
+    }
+}
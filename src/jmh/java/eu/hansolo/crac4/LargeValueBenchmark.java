@@ -0,0 +1,88 @@
+package eu.hansolo.crac4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Throughput of get() and put() with large values (byte arrays of valueSize bytes)
+ * in the GenericCache, which keeps all values on the heap, and the TieredCache,
+ * which keeps only the first tier on the heap and the rest in an OffHeapCache.
+ * Every put() stores a new array, like a value that was loaded again. The keys
+ * follow a uniform or a Zipfian distribution, only with the latter most requests
+ * are served by the first tier of the TieredCache.
+ * Unlike in the other benchmarks the MaintenanceScheduler cleans the caches every
+ * second (like in the application), because the garbage of the maintenance is part
+ * of what is measured.
+ * Run it with the gc profiler to compare the allocation rate and the time spent
+ * in the garbage collector, e.g. ./gradlew jmh -PjmhIncludes=LargeValueBenchmark
+ * (profilers = ['gc'] is set in the build.gradle)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx1g" })
+public class LargeValueBenchmark {
+    public  static final int                  KEY_SPACE      = 1 << 12;
+    public  static final int                  FIRST_TIER     = KEY_SPACE / 16;
+    public  static final long                 OFFHEAP_SIZE   = 256L * 1024 * 1024;
+    private static final long                 INITIAL_DELAY  = 1;
+    private static final int                  NO_OF_KEYS     = 1 << 20;
+    private static final int                  MASK           = NO_OF_KEYS - 1;
+    private static final Codec<byte[]>        BYTES          = new Codec<>() {
+        @Override public int size(final byte[] value) { return value.length; }
+        @Override public void write(final ByteBuffer buffer, final byte[] value) { buffer.put(value); }
+        @Override public byte[] read(final ByteBuffer buffer) {
+            final byte[] value = new byte[buffer.remaining()];
+            buffer.get(value);
+            return value;
+        }
+    };
+    @Param({ "generic", "tiered" })
+    public               String               cacheType;
+    @Param({ "1000", "16000" })
+    public               int                  valueSize;
+    @Param({ KeyGenerator.UNIFORM, KeyGenerator.ZIPF })
+    public               String               distribution;
+    private              Cache<Long, byte[]>  cache;
+    private              byte[]               value;
+    private              long[]               keys;
+    private              int                  index;
+
+
+    // ******************** Setup *********************************************
+    @Setup(Level.Trial) public void setup() {
+        final long timeout = BenchmarkCaches.CACHE_TIMEOUT;
+        cache = switch (CacheType.fromText(cacheType)) {
+            case TIERED -> new TieredCache<>(INITIAL_DELAY, timeout, FIRST_TIER, timeout, OFFHEAP_SIZE, BYTES);
+            default     -> new GenericCache<>(INITIAL_DELAY, timeout);
+        };
+        value = new byte[valueSize];
+        keys  = KeyGenerator.create(distribution, NO_OF_KEYS, KEY_SPACE, 42);
+        for (long i = 0 ; i < KEY_SPACE ; i++) { cache.put(i, value.clone()); }
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public Optional<byte[]> get() { return cache.get(keys[index++ & MASK]); }
+
+    @Benchmark public void put() { cache.put(keys[index++ & MASK], value.clone()); }
+}
@@ -0,0 +1,66 @@
+package eu.hansolo.crac4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The loop of Main.checkForPrimes() with 100_000 random numbers between
+ * 0 and 100_000, without a cache ("none") and with the different cache types,
+ * computed by trial division or by the parallel PrimeSieve.
+ * The cache is filled during the warmup, so the measurement shows the time of
+ * a run with a warm cache. Running it with the gc profiler (default in build.gradle)
+ * shows the allocation per run, e.g. boxing in the GenericCache compared to
+ * the LongBooleanCache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(1)
+@Fork(1)
+public class PrimeBenchmark {
+    @Param({ BenchmarkCaches.NONE, "generic", "bounded", "primitive", "tiered" })
+    public  String               cacheType;
+    @Param({ "trial_division", "sieve" })
+    public  String               primeEngine;
+    private Cache<Long, Boolean> cache;
+    private PrimeSieve           primeSieve;
+    private long[]               numbers;
+
+
+    // ******************** Setup *********************************************
+    @Setup(Level.Trial) public void setup() {
+        final Random random = new Random(42);
+        cache      = BenchmarkCaches.create(cacheType, BoundedCache.DEFAULT_MAXIMUM_SIZE);
+        primeSieve = PrimeEngine.SIEVE == PrimeEngine.fromText(primeEngine) ? new PrimeSieve(Main.MAX_NUMBER) : null;
+        numbers    = new long[Main.MAX_NUMBER];
+        for (int i = 0 ; i < Main.MAX_NUMBER ; i++) { numbers[i] = random.nextInt(Main.MAX_NUMBER); }
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public int checkForPrimes() {
+        if (null != primeSieve) { return primeSieve.checkAll(numbers, cache); }
+        int primes = 0;
+        for (long number : numbers) {
+            if (BenchmarkCaches.isPrime(cache, number)) { primes++; }
+        }
+        return primes;
+    }
+}
@@ -0,0 +1,55 @@
+package eu.hansolo.crac4;
+
+import jdk.crac.*;
+//import org.crac.*;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time of afterRestore() depending on the number of cached entries. The caches
+ * only set back their clock after a restore, so the time should not depend on
+ * the size of the cache.
+ * beforeCheckpoint() is called before every invocation, the checkpoint itself
+ * is not part of the benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RestoreBenchmark {
+    @Param({ "generic", "primitive" })
+    public  String   cacheType;
+    @Param({ "1000", "1000000", "10000000" })
+    public  int      size;
+    private Resource resource;
+
+
+    // ******************** Setup *********************************************
+    @Setup(Level.Trial) public void setupTrial() {
+        final Cache<Long, Boolean> cache = BenchmarkCaches.create(cacheType, size);
+        for (long key = 0 ; key < size ; key++) { cache.put(key, key % 2 == 0); }
+        resource = (Resource) cache;
+    }
+
+    @Setup(Level.Invocation) public void setupInvocation() throws Exception { resource.beforeCheckpoint(null); }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public void afterRestore() throws Exception { resource.afterRestore(null); }
+}
@@ -0,0 +1,181 @@
+package eu.hansolo.crac4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Multi-process stress test for the SharedCache.
+ * The launcher creates a temporary file and starts writer and reader processes
+ * (child JVMs with the same classpath) that all map this file. Writers put new
+ * versions of the keys and sometimes remove them, readers get the keys all the time.
+ * Every value contains its key, its version and a fill pattern that depends on both,
+ * the length of the value changes with the version. A reader that gets a value that
+ * was changed while it was read (a torn read) sees a wrong key, a wrong length or a
+ * mixed fill pattern.
+ * Before the other processes start, the launcher puts WARM_KEYS keys that are never
+ * written again. In the middle of the run a late joiner is started that maps the
+ * file while the others are writing, it has to get all warm keys from the file with
+ * getOrCompute() without computing any of them and then reads like a reader.
+ * Checks:
+ * - no process ever gets a torn value
+ * - the late joiner gets all warm keys without computing them
+ * - the readers get hits at all (otherwise the test did not test anything)
+ * Run it with ./gradlew sharedCacheStressTest --args="[writers] [readers] [seconds]"
+ */
+public final class SharedCacheStressTest {
+    private static final int           CAPACITY       = 1 << 12;
+    private static final int           KEY_SPACE      = 1 << 10;
+    private static final int           WARM_KEYS      = 64;
+    private static final long          WARM_OFFSET    = 1L << 32;
+    private static final int           MAX_VALUE_SIZE = 160;
+    private static final long          CACHE_TIMEOUT  = 600;
+    private static final String        WRITER         = "writer";
+    private static final String        READER         = "reader";
+    private static final String        JOINER         = "joiner";
+    private static final AtomicLong    VIOLATIONS     = new AtomicLong();
+    private static final Codec<byte[]> BYTES          = new Codec<>() {
+        @Override public int size(final byte[] value) { return value.length; }
+        @Override public void write(final ByteBuffer buffer, final byte[] value) { buffer.put(value); }
+        @Override public byte[] read(final ByteBuffer buffer) {
+            final byte[] value = new byte[buffer.remaining()];
+            buffer.get(value);
+            return value;
+        }
+    };
+
+
+    // ******************** Methods *******************************************
+    public static void main(final String[] args) throws Exception {
+        if (args.length > 0 && (WRITER.equals(args[0]) || READER.equals(args[0]) || JOINER.equals(args[0]))) {
+            // Child process: role, file, seconds, id
+            final long violations = child(args[0], Path.of(args[1]), Long.parseLong(args[2]), Integer.parseInt(args[3]));
+            System.exit(0 == violations ? 0 : 1);
+        }
+        final int     noOfWriters = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        final int     noOfReaders = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        final long    seconds     = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        final boolean passed      = launch(noOfWriters, noOfReaders, seconds);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean launch(final int noOfWriters, final int noOfReaders, final long seconds) throws Exception {
+        final Path file = Files.createTempFile("crac4-shared-", ".cache");
+        try {
+            // The launcher maps the file first and puts the warm keys
+            final SharedCache<byte[]> cache = open(file);
+            for (long key = WARM_OFFSET ; key < WARM_OFFSET + WARM_KEYS ; key++) { cache.put(key, value(key, 0)); }
+
+            final List<Process> processes = new ArrayList<>();
+            for (int i = 0 ; i < noOfWriters ; i++) { processes.add(start(WRITER, file, seconds, i)); }
+            for (int i = 0 ; i < noOfReaders ; i++) { processes.add(start(READER, file, seconds, i)); }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 2);
+            processes.add(start(JOINER, file, seconds - seconds / 2, 0));
+
+            boolean passed = true;
+            for (Process process : processes) {
+                if (!process.waitFor(seconds + 60, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                    System.out.println("Process " + process.pid() + " did not finish");
+                    passed = false;
+                } else if (0 != process.exitValue()) {
+                    passed = false;
+                }
+            }
+            return passed;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Process start(final String role, final Path file, final long seconds, final int id) throws IOException {
+        final String java = ProcessHandle.current().info().command().orElse("java");
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SharedCacheStressTest.class.getName(),
+                                  role, file.toString(), Long.toString(seconds), Integer.toString(id)).inheritIO().start();
+    }
+
+    private static long child(final String role, final Path file, final long seconds, final int id) {
+        final String              name       = role + "-" + id + " (pid " + ProcessHandle.current().pid() + ")";
+        final SharedCache<byte[]> cache      = open(file);
+        final Random              random     = new Random(ProcessHandle.current().pid());
+        final long                end        = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long                      violations = 0;
+        long                      operations = 0;
+        long                      hits       = 0;
+
+        if (JOINER.equals(role)) {
+            for (long key = WARM_OFFSET ; key < WARM_OFFSET + WARM_KEYS ; key++) {
+                final byte[] value = cache.getOrCompute(key, k -> value(k, 1));
+                if (!isValid(key, value) || 0 != version(value)) { violations += violation(name, "warm key " + key + " was not found in the file"); }
+            }
+            if (0 != cache.getStats().getLoadCount()) { violations += violation(name, cache.getStats().getLoadCount() + " warm keys were computed"); }
+        }
+
+        int version = 1;
+        while (System.nanoTime() < end) {
+            final long key = random.nextInt(KEY_SPACE);
+            if (WRITER.equals(role)) {
+                if (0 == random.nextInt(16)) {
+                    cache.remove(key);
+                } else {
+                    cache.put(key, value(key, version++));
+                }
+            } else {
+                final Optional<byte[]> value = cache.get(key);
+                if (value.isPresent()) {
+                    hits++;
+                    if (!isValid(key, value.get())) { violations += violation(name, "torn value for key " + key); }
+                }
+            }
+            operations++;
+        }
+        if (READER.equals(role) && 0 == hits) { violations += violation(name, "no hits at all"); }
+        System.out.println(name + ": " + operations + " operations, " + hits + " hits, " + violations + " violations");
+        return violations;
+    }
+
+    private static SharedCache<byte[]> open(final Path file) {
+        return new SharedCache<>(file, CACHE_TIMEOUT, ExpiryPolicy.AFTER_WRITE, CAPACITY, MAX_VALUE_SIZE, BYTES);
+    }
+
+    // Key, version and a fill pattern of both, the length changes with the version
+    private static byte[] value(final long key, final int version) {
+        final byte[]     value  = new byte[length(version)];
+        final ByteBuffer buffer = ByteBuffer.wrap(value).putLong(key).putInt(version);
+        while (buffer.hasRemaining()) { buffer.put(fill(key, version)); }
+        return value;
+    }
+
+    private static boolean isValid(final long key, final byte[] value) {
+        if (value.length < Long.BYTES + Integer.BYTES) { return false; }
+        final ByteBuffer buffer = ByteBuffer.wrap(value);
+        if (buffer.getLong() != key) { return false; }
+        final int version = buffer.getInt();
+        if (value.length != length(version)) { return false; }
+        while (buffer.hasRemaining()) {
+            if (buffer.get() != fill(key, version)) { return false; }
+        }
+        return true;
+    }
+
+    private static int version(final byte[] value) { return ByteBuffer.wrap(value).getInt(Long.BYTES); }
+
+    private static int length(final int version) { return Long.BYTES + Integer.BYTES + 16 * (1 + Math.floorMod(version, 8)); }
+
+    private static byte fill(final long key, final int version) { return (byte) (key * 31 + version); }
+
+    private static long violation(final String name, final String message) {
+        // Only print the first violations of every process, the count is in the summary
+        if (VIOLATIONS.incrementAndGet() <= 10) { System.out.println(name + ": " + message); }
+        return 1;
+    }
+}
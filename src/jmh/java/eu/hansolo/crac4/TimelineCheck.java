@@ -0,0 +1,86 @@
+package eu.hansolo.crac4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.OptionalDouble;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Compares a timeline JSON (crac4-timeline-startup.json or crac4-timeline-restore.json,
+ * written with timeline=true) with the timeline JSON of a baseline build and fails
+ * if one of the METRICS got slower by more than the threshold.
+ * A metric only counts as slower if it is more than threshold percent and more than
+ * MIN_DELTA_MS above the baseline, so that a restore that takes 6 instead of 4 ms
+ * does not fail the check. Metrics that are not in the baseline (e.g. restore_ms
+ * in a startup timeline) are skipped, metrics that are in the baseline but were
+ * not recorded in the timeline (-1, e.g. no cache hit) fail the check.
+ * Run it with ./gradlew checkTimeline --args="[baseline] [timeline] [threshold in percent]",
+ * the threshold is 20 percent by default. Exits with 1 if the timeline is slower.
+ */
+public final class TimelineCheck {
+    public  static final double   DEFAULT_THRESHOLD = 20;
+    public  static final double   MIN_DELTA_MS      = 10;
+    private static final String[] METRICS           = { "first_run_ms", "restore_ms", "first_cache_hit_ms" };
+
+
+    // ******************** Constructors **************************************
+    private TimelineCheck() {}
+
+
+    // ******************** Methods *******************************************
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: TimelineCheck baseline.json timeline.json [threshold in percent]");
+            System.exit(2);
+        }
+        final String baseline  = Files.readString(Path.of(args[0]));
+        final String timeline  = Files.readString(Path.of(args[1]));
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        final int    failures  = check(baseline, timeline, threshold);
+        System.out.println(0 == failures ? "PASSED" : "FAILED, " + failures + " metrics are more than " + threshold + "% slower than the baseline or were not recorded");
+        System.exit(0 == failures ? 0 : 1);
+    }
+
+    /**
+     * Compares the METRICS of the given timeline with the baseline and prints the result of every metric.
+     * @param baseline  Timeline JSON of the baseline build
+     * @param timeline  Timeline JSON of the build to check
+     * @param threshold Allowed slow down in percent
+     * @return the number of metrics that are slower than allowed
+     */
+    static int check(final String baseline, final String timeline, final double threshold) {
+        int failures = 0;
+        for (String metric : METRICS) {
+            final OptionalDouble expected = valueOf(baseline, metric);
+            if (expected.isEmpty() || expected.getAsDouble() < 0) {
+                System.out.println(metric + ": not in baseline, skipped");
+                continue;
+            }
+            final OptionalDouble actual = valueOf(timeline, metric);
+            if (actual.isEmpty() || actual.getAsDouble() < 0) {
+                System.out.println(metric + ": not recorded, baseline " + format(expected.getAsDouble()) + " ms");
+                failures++;
+                continue;
+            }
+            final double  limit  = Math.max(expected.getAsDouble() * (1 + threshold / 100), expected.getAsDouble() + MIN_DELTA_MS);
+            final double  change = 0 == expected.getAsDouble() ? 0 : (actual.getAsDouble() / expected.getAsDouble() - 1) * 100;
+            final boolean slower = actual.getAsDouble() > limit;
+            System.out.println(metric + ": " + format(actual.getAsDouble()) + " ms, baseline " + format(expected.getAsDouble()) + " ms ("
+                               + (change >= 0 ? "+" : "") + format(change) + "%)" + (slower ? " SLOWER" : ""));
+            if (slower) { failures++; }
+        }
+        return failures;
+    }
+
+    // The timeline JSON is flat for the metrics, a pattern is enough to find them
+    private static OptionalDouble valueOf(final String json, final String name) {
+        final Matcher matcher = Pattern.compile("\"" + name + "\"\\s*:\\s*(-?[0-9]+(?:\\.[0-9]+)?)").matcher(json);
+        return matcher.find() ? OptionalDouble.of(Double.parseDouble(matcher.group(1))) : OptionalDouble.empty();
+    }
+
+    private static String format(final double value) { return String.format(Locale.US, "%.1f", value); }
+}
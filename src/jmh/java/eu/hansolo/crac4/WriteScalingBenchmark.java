@@ -0,0 +1,108 @@
+package eu.hansolo.crac4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Write throughput of the generic cache compared to the sharded cache with
+ * 1 to 64 threads. Every put() creates a new CacheValue, so writers contend on
+ * the map. putAndRemove() also changes the size of the maps all the time and
+ * schedules every key in the TimerWheel again, so writers also contend on the wheel.
+ * Unlike in the CacheBenchmark the MaintenanceScheduler cleans the caches every
+ * second, otherwise the keys of the removed entries would pile up in the wheel
+ * (they are only purged by clean()) until the fork runs out of memory.
+ * The numbers only make sense on a machine with at least as many cores as threads,
+ * e.g. ./gradlew jmh -PjmhIncludes=WriteScalingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class WriteScalingBenchmark {
+    private static final int                  KEY_SPACE     = 1 << 20;
+    private static final long                 INITIAL_DELAY = 1;
+    private static final int                  NO_OF_KEYS    = 1 << 20;
+    private static final int                  MASK          = NO_OF_KEYS - 1;
+    private static final AtomicLong           SEEDS         = new AtomicLong(42);
+    @Param({ "generic", "sharded" })
+    public               String               cacheType;
+    private              Cache<Long, Boolean> cache;
+
+
+    // ******************** Setup *********************************************
+    @Setup(Level.Trial) public void setup() {
+        final long timeout = BenchmarkCaches.CACHE_TIMEOUT;
+        cache = switch (CacheType.fromText(cacheType)) {
+            case SHARDED -> new ShardedCache<>(INITIAL_DELAY, timeout);
+            default      -> new GenericCache<>(INITIAL_DELAY, timeout);
+        };
+        for (long key = 0 ; key < KEY_SPACE ; key++) { cache.put(key, Boolean.TRUE); }
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public void put(final Keys keys) { cache.put(keys.next(), Boolean.TRUE); }
+
+    @Benchmark public void putAndRemove(final Keys keys) {
+        final long key = keys.next();
+        cache.put(key, Boolean.TRUE);
+        cache.remove(key);
+    }
+
+
+    // ******************** Internal classes **********************************
+    /**
+     * Every thread writes it's own uniformly distributed keys.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private long[] keys;
+        private int    index;
+
+
+        // ******************** Setup *****************************************
+        @Setup(Level.Trial) public void setup() { keys = KeyGenerator.create(KeyGenerator.UNIFORM, NO_OF_KEYS, KEY_SPACE, SEEDS.getAndIncrement()); }
+
+
+        // ******************** Methods ***************************************
+        long next() { return keys[index++ & MASK]; }
+    }
+
+    @Threads(1)
+    public static class Threads1 extends WriteScalingBenchmark { }
+
+    @Threads(2)
+    public static class Threads2 extends WriteScalingBenchmark { }
+
+    @Threads(4)
+    public static class Threads4 extends WriteScalingBenchmark { }
+
+    @Threads(8)
+    public static class Threads8 extends WriteScalingBenchmark { }
+
+    @Threads(16)
+    public static class Threads16 extends WriteScalingBenchmark { }
+
+    @Threads(32)
+    public static class Threads32 extends WriteScalingBenchmark { }
+
+    @Threads(64)
+    public static class Threads64 extends WriteScalingBenchmark { }
+}
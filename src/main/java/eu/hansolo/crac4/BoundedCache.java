@@ -0,0 +1,320 @@
+package eu.hansolo.crac4;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The BoundedCache is a GenericCache that in addition to the time based expiration
+ * never holds more than a given maximum weight. The weight of an entry is calculated
+ * by the given Weigher, by default every entry has a weight of 1 which makes the
+ * maximum weight the maximum number of entries.
+ * The FrequencySketch is sized by the expected number of entries and not by the
+ * weight. With the singleton weigher this is the maximum weight, with any other
+ * weigher it should be given to the constructor (otherwise the smaller of the
+ * maximum weight and DEFAULT_EXPECTED_ENTRIES is used).
+ * The eviction follows the W-TinyLFU policy. New entries will be added to a small
+ * LRU window (1% of the maximum weight). Entries that fall out of the window have to
+ * compete with the least recently used entry of the main region for admission. The
+ * winner is the entry that was requested more often in the recent past which is
+ * estimated by a FrequencySketch. The main region itself is a segmented LRU with a
+ * probation and a protected segment (80% of the main region), entries that are read
+ * while in probation will be promoted to the protected segment.
+ * With this approach a burst of unique keys (e.g. a scan) can only replace the
+ * entries of the window but not the frequently used entries of the main region.
+ * Writes update the policy under a lock, reads only record the access if the lock
+ * is free, meaning to say under heavy contention some reads will not be recorded.
+ * @param <K> Key
+ * @param <V> Value to cache for the key
+ */
+public class BoundedCache<K, V> extends GenericCache<K, V> {
+    public  static final long                  DEFAULT_MAXIMUM_SIZE     = 50_000;
+    public  static final long                  DEFAULT_EXPECTED_ENTRIES = 50_000;
+    private static final double                WINDOW_PERCENTAGE        = 0.01;
+    private static final double                PROTECTED_PERCENTAGE     = 0.80;
+    private final        long                  maximumWeight;
+    private final        long                  windowMaximum;
+    private final        long                  protectedMaximum;
+    private final        Weigher<K, V>         weigher;
+    private final        ReentrantLock         evictionLock;
+    private final        Map<K, Node<K>>       nodes;
+    private final        FrequencySketch<K>    sketch;
+    private final        NodeList<K>           window;
+    private final        NodeList<K>           probation;
+    private final        NodeList<K>           protectedSegment;
+
+
+    // ******************** Constructors **************************************
+    public BoundedCache(final long maximumSize) {
+        this(DEFAULT_CACHE_DELAY, DEFAULT_CACHE_TIMEOUT, maximumSize);
+    }
+    public BoundedCache(final long initialDelay, final long cacheTimeout, final long maximumSize) {
+        this(initialDelay, cacheTimeout, maximumSize, Weigher.singleton());
+    }
+    public BoundedCache(final long initialDelay, final long cacheTimeout, final long maximumWeight, final Weigher<K, V> weigher) {
+        this(initialDelay, cacheTimeout, ExpiryPolicy.AFTER_ACCESS, maximumWeight, weigher);
+    }
+    public BoundedCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final long maximumWeight, final Weigher<K, V> weigher) {
+        this(initialDelay, cacheTimeout, expiryPolicy, maximumWeight, weigher, expectedEntries(maximumWeight, weigher));
+    }
+    /**
+     * @param expectedEntries Expected number of entries when the cache is full, sizes the FrequencySketch
+     */
+    public BoundedCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final long maximumWeight, final Weigher<K, V> weigher, final long expectedEntries) {
+        super(initialDelay, cacheTimeout, expiryPolicy);
+        if (maximumWeight < 1) { throw new IllegalArgumentException("maximumWeight must be > 0"); }
+        if (null == weigher) { throw new IllegalArgumentException("weigher must not be null"); }
+        if (expectedEntries < 1) { throw new IllegalArgumentException("expectedEntries must be > 0"); }
+        this.maximumWeight    = maximumWeight;
+        this.windowMaximum    = Math.max(1, (long) (maximumWeight * WINDOW_PERCENTAGE));
+        this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_PERCENTAGE);
+        this.weigher          = weigher;
+        this.evictionLock     = new ReentrantLock();
+        this.nodes            = new HashMap<>();
+        this.sketch           = new FrequencySketch<>(expectedEntries);
+        this.window           = new NodeList<>();
+        this.probation        = new NodeList<>();
+        this.protectedSegment = new NodeList<>();
+    }
+
+
+    // The weight is only the number of entries with the singleton weigher
+    private static long expectedEntries(final long maximumWeight, final Weigher<?, ?> weigher) {
+        return Weigher.singleton() == weigher ? maximumWeight : Math.min(maximumWeight, DEFAULT_EXPECTED_ENTRIES);
+    }
+
+
+    // ******************** Cache Methods *************************************
+    @Override public Optional<V> get(final K key) {
+        final Optional<V> value = super.get(key);
+        afterRead(key);
+        return value;
+    }
+
+    @Override protected void put(final K key, final V value, final long outdatedAt) {
+        final int weight = weigher.weigh(key, value);
+        if (weight < 0) { throw new IllegalArgumentException("weight must be >= 0"); }
+        evictionLock.lock();
+        try {
+            if (weight > maximumWeight) {
+                // Would never fit into the cache
+                removeNode(nodes.remove(key));
+                removeFromMap(key, RemovalCause.SIZE);
+                return;
+            }
+            super.put(key, value, outdatedAt);
+            afterWrite(key, weight);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override public void remove(final K key) {
+        evictionLock.lock();
+        try {
+            super.remove(key);
+            removeNode(nodes.remove(key));
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override protected void clear(final RemovalCause cause) {
+        // clear() will also be called by the constructor of GenericCache
+        if (null == evictionLock) {
+            super.clear(cause);
+            return;
+        }
+        evictionLock.lock();
+        try {
+            super.clear(cause);
+            nodes.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            sketch.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getMaximumWeight() { return maximumWeight; }
+
+    public long getWeightedSize() {
+        evictionLock.lock();
+        try {
+            return window.weight + probation.weight + protectedSegment.weight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override protected void onRemoval(final K key, final CacheValue<V> cacheValue, final RemovalCause cause) {
+        // Explicit and size based removals keep the nodes in sync themselves, replaced keys keep their node and clear(cause) drops all nodes after the cleared and checkpoint removals
+        if (RemovalCause.EXPIRED != cause) { return; }
+        evictionLock.lock();
+        try {
+            // The key might have been put again between removing it from the map and now
+            if (!map.containsKey(key)) { removeNode(nodes.remove(key)); }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+
+    // ******************** Policy Methods ************************************
+    private void afterRead(final K key) {
+        if (!evictionLock.tryLock()) { return; }
+        try {
+            sketch.increment(key);
+            final Node<K> node = nodes.get(key);
+            if (null != node) { onHit(node); }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void afterWrite(final K key, final int weight) {
+        sketch.increment(key);
+        Node<K> node = nodes.get(key);
+        if (null == node) {
+            node = new Node<>(key, weight, Region.WINDOW);
+            nodes.put(key, node);
+            window.addLast(node);
+        } else {
+            listOf(node).weight += weight - node.weight;
+            node.weight = weight;
+            onHit(node);
+        }
+        evict();
+    }
+
+    private void onHit(final Node<K> node) {
+        switch (node.region) {
+            case WINDOW    -> window.moveToLast(node);
+            case PROTECTED -> protectedSegment.moveToLast(node);
+            case PROBATION -> {
+                probation.remove(node);
+                node.region = Region.PROTECTED;
+                protectedSegment.addLast(node);
+                while (protectedSegment.weight > protectedMaximum) {
+                    final Node<K> demoted = protectedSegment.first();
+                    protectedSegment.remove(demoted);
+                    demoted.region = Region.PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+        }
+    }
+
+    private void evict() {
+        // Entries that fall out of the window become candidates at the end of the probation segment
+        while (window.weight > windowMaximum) {
+            final Node<K> candidate = window.first();
+            window.remove(candidate);
+            candidate.region = Region.PROBATION;
+            probation.addLast(candidate);
+        }
+        // Let the candidate compete with the least recently used entry of the main region
+        while (window.weight + probation.weight + protectedSegment.weight > maximumWeight) {
+            final Node<K> victim    = null != probation.first() ? probation.first() : null != protectedSegment.first() ? protectedSegment.first() : window.first();
+            final Node<K> candidate = probation.last();
+            if (null == candidate || candidate == victim) {
+                evict(victim);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(final Node<K> node) {
+        nodes.remove(node.key);
+        removeNode(node);
+        removeFromMap(node.key, RemovalCause.SIZE);
+    }
+
+    private void removeFromMap(final K key, final RemovalCause cause) {
+        final CacheValue<V> cacheValue = map.remove(key);
+        if (null != cacheValue) { removed(key, cacheValue, cause); }
+    }
+
+    private void removeNode(final Node<K> node) {
+        if (null == node) { return; }
+        listOf(node).remove(node);
+    }
+
+    private NodeList<K> listOf(final Node<K> node) {
+        return switch (node.region) {
+            case WINDOW    -> window;
+            case PROBATION -> probation;
+            case PROTECTED -> protectedSegment;
+        };
+    }
+
+
+    // ******************** Internal classes **********************************
+    private enum Region { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Node<K> {
+        private final K       key;
+        private       int     weight;
+        private       Region  region;
+        private       Node<K> prev;
+        private       Node<K> next;
+
+
+        // ******************** Constructors **********************************
+        Node(final K key, final int weight, final Region region) {
+            this.key    = key;
+            this.weight = weight;
+            this.region = region;
+        }
+    }
+
+    /**
+     * Doubly linked list in access order, the first node is the least recently used.
+     */
+    private static final class NodeList<K> {
+        private Node<K> head;
+        private Node<K> tail;
+        private long    weight;
+
+
+        // ******************** Methods ***************************************
+        Node<K> first() { return head; }
+
+        Node<K> last() { return tail; }
+
+        void addLast(final Node<K> node) {
+            node.prev = tail;
+            node.next = null;
+            if (null == tail) { head = node; } else { tail.next = node; }
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(final Node<K> node) {
+            if (null == node.prev) { head = node.next; } else { node.prev.next = node.next; }
+            if (null == node.next) { tail = node.prev; } else { node.next.prev = node.prev; }
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToLast(final Node<K> node) {
+            if (tail == node) { return; }
+            remove(node);
+            addLast(node);
+        }
+
+        void clear() {
+            head   = null;
+            tail   = null;
+            weight = 0;
+        }
+    }
+}
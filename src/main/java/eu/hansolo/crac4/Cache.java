@@ -1,6 +1,13 @@
 package eu.hansolo.crac4;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 
 public interface Cache<K, V> {
@@ -14,5 +21,55 @@ public interface Cache<K, V> {
 
     void put(K key, V value);
 
+    /**
+     * Puts all entries of the given map into the cache. Implementations might
+     * override it to put the entries more efficiently than one by one.
+     * @param entries Entries to put into the cache
+     */
+    default void putAll(final Map<? extends K, ? extends V> entries) {
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) { put(entry.getKey(), entry.getValue()); }
+    }
+
     void remove(K key);
+
+    int size();
+
+    CacheStats getStats();
+
+    /**
+     * Returns the cached value for the given key or computes it with the given
+     * function and puts it in the cache. The default implementation is not atomic,
+     * implementations should override it to make sure that concurrent callers for
+     * the same key only compute the value once.
+     * @param key      Key
+     * @param function Function that computes the value if the key is not cached
+     * @return the cached or computed value for the given key
+     */
+    default V getOrCompute(final K key, final Function<? super K, ? extends V> function) {
+        final Optional<V> value = get(key);
+        if (value.isPresent()) { return value.get(); }
+        final V computed = function.apply(key);
+        put(key, computed);
+        return computed;
+    }
+
+    default CompletableFuture<V> getOrComputeAsync(final K key, final Function<? super K, ? extends V> function) {
+        return getOrComputeAsync(key, function, ForkJoinPool.commonPool());
+    }
+    default CompletableFuture<V> getOrComputeAsync(final K key, final Function<? super K, ? extends V> function, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> getOrCompute(key, function), executor);
+    }
+
+    /**
+     * Returns the values for all given keys in the order of the given collection,
+     * values that are not cached will be computed with the given function.
+     * @param keys     Keys
+     * @param function Function that computes the value of a key that is not cached
+     * @return a map with the cached or computed values for all given keys
+     */
+    default Map<K, V> getAll(final Collection<? extends K> keys, final Function<? super K, ? extends V> function) {
+        final Map<K, V> values = new LinkedHashMap<>(keys.size() * 2);
+        for (K key : keys) { values.put(key, getOrCompute(key, function)); }
+        return values;
+    }
 }
@@ -0,0 +1,307 @@
+package eu.hansolo.crac4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The CacheEventDispatcher delivers the removals of a cache to a RemovalListener
+ * and the writes to a CacheWriter without blocking the threads that use the cache.
+ * Removals are put into a bounded queue, if the queue is full because the listener
+ * can not keep up, the notification will be dropped and counted instead of blocking
+ * the caller. Writes are collected in a map with the latest value per key, so several
+ * writes of the same key will be coalesced into one. The map is bounded too, if
+ * maxPendingWrites keys are pending because the writer can not keep up, writes of
+ * further keys will be dropped and counted (writes of pending keys still replace the
+ * pending value). The bound may be exceeded by the number of threads that write at
+ * the same time. Writes that fail are tried again with the next flush, at most
+ * MAX_WRITE_ATTEMPTS times, after that they are dropped and counted as well.
+ * Both are drained in batches by a task on the given executor (by default the common
+ * pool), at most one task per dispatcher is scheduled at a time. The task is scheduled
+ * when a removal was queued, when a batch of writes is pending or by flush(), which
+ * the cache calls in clean() every second.
+ * The counters show the back-pressure: a growing queue size or dropped count means
+ * that the listener is too slow, a growing number of pending writes or dropped writes
+ * means that the writer is too slow, a high coalesced count means that the writer
+ * saves a lot of writes.
+ * @param <K> Key
+ * @param <V> Value
+ */
+public final class CacheEventDispatcher<K, V> {
+    public  static final int                                      DEFAULT_QUEUE_CAPACITY = 8192;
+    public  static final int                                      DEFAULT_MAX_PENDING    = 65_536;
+    public  static final int                                      BATCH_SIZE             = 256;
+    public  static final int                                      MAX_WRITE_ATTEMPTS     = 3;
+    private static final Object                                   DELETED                = new Object();
+    private final        BlockingQueue<RemovalNotification<K, V>> queue;
+    private final        Map<K, Object>                           pendingWrites;
+    private final        int                                      maxPendingWrites;
+    private final        Map<K, Integer>                          failedAttempts;
+    private final        Executor                                 executor;
+    private final        AtomicBoolean                            drainScheduled;
+    private final        ReentrantLock                            drainLock;
+    private final        Runnable                                 drainTask;
+    private final        LongAdder                                published;
+    private final        LongAdder                                delivered;
+    private final        LongAdder                                dropped;
+    private final        LongAdder                                batches;
+    private final        LongAdder                                listenerFailures;
+    private final        LongAdder                                coalesced;
+    private final        LongAdder                                written;
+    private final        LongAdder                                deleted;
+    private final        LongAdder                                writerFailures;
+    private final        LongAdder                                droppedWrites;
+    private volatile     RemovalListener<K, V>                    removalListener;
+    private volatile     CacheWriter<K, V>                        cacheWriter;
+
+
+    // ******************** Constructors **************************************
+    public CacheEventDispatcher(final Executor executor) {
+        this(executor, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_PENDING);
+    }
+    public CacheEventDispatcher(final Executor executor, final int queueCapacity, final int maxPendingWrites) {
+        if (maxPendingWrites < 1) { throw new IllegalArgumentException("maxPendingWrites must be > 0"); }
+        this.queue            = new ArrayBlockingQueue<>(queueCapacity);
+        this.pendingWrites    = new ConcurrentHashMap<>();
+        this.maxPendingWrites = maxPendingWrites;
+        this.failedAttempts   = new HashMap<>();
+        this.executor         = executor;
+        this.drainScheduled   = new AtomicBoolean(false);
+        this.drainLock        = new ReentrantLock();
+        this.drainTask        = () -> drain();
+        this.published        = new LongAdder();
+        this.delivered        = new LongAdder();
+        this.dropped          = new LongAdder();
+        this.batches          = new LongAdder();
+        this.listenerFailures = new LongAdder();
+        this.coalesced        = new LongAdder();
+        this.written          = new LongAdder();
+        this.deleted          = new LongAdder();
+        this.writerFailures   = new LongAdder();
+        this.droppedWrites    = new LongAdder();
+    }
+
+
+    // ******************** Methods *******************************************
+    public RemovalListener<K, V> getRemovalListener() { return removalListener; }
+    public void setRemovalListener(final RemovalListener<K, V> removalListener) { this.removalListener = removalListener; }
+
+    public CacheWriter<K, V> getCacheWriter() { return cacheWriter; }
+    public void setCacheWriter(final CacheWriter<K, V> cacheWriter) { this.cacheWriter = cacheWriter; }
+
+    /**
+     * Queues the removal for the listener and passes explicit removals to the writer.
+     * Will never block, if the queue is full the notification will be dropped.
+     */
+    public void removed(final K key, final V value, final RemovalCause cause) {
+        if (null != cacheWriter && RemovalCause.EXPLICIT == cause) { pendingWrite(key, DELETED); }
+        if (null == removalListener) { return; }
+        if (queue.offer(new RemovalNotification<>(key, value, cause))) {
+            published.increment();
+            scheduleDrain();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Passes the written value to the writer, the latest value of a key wins.
+     */
+    public void written(final K key, final V value) {
+        if (null != cacheWriter) { pendingWrite(key, value); }
+    }
+
+    /**
+     * Schedules the delivery of everything that is pending.
+     */
+    public void flush() {
+        if (!queue.isEmpty() || !pendingWrites.isEmpty()) { scheduleDrain(); }
+    }
+
+    /**
+     * Delivers everything that is pending in the calling thread, e.g. before a checkpoint.
+     */
+    public void drainNow() { drain(); }
+
+    public int getQueueSize() { return queue.size(); }
+
+    public int getQueueCapacity() { return queue.size() + queue.remainingCapacity(); }
+
+    public long getPublishedCount() { return published.sum(); }
+
+    public long getDeliveredCount() { return delivered.sum(); }
+
+    public long getDroppedCount() { return dropped.sum(); }
+
+    public long getBatchCount() { return batches.sum(); }
+
+    public long getListenerFailureCount() { return listenerFailures.sum(); }
+
+    public int getPendingWriteCount() { return pendingWrites.size(); }
+
+    public int getMaxPendingWrites() { return maxPendingWrites; }
+
+    /**
+     * Returns the number of writes and deletes that never reached the writer, either
+     * because too many keys were pending or because the writer failed too often.
+     */
+    public long getDroppedWriteCount() { return droppedWrites.sum(); }
+
+    public long getCoalescedWriteCount() { return coalesced.sum(); }
+
+    public long getWrittenCount() { return written.sum(); }
+
+    public long getDeletedCount() { return deleted.sum(); }
+
+    public long getWriterFailureCount() { return writerFailures.sum(); }
+
+    @Override public String toString() {
+        return new StringBuilder().append("queued ").append(getQueueSize()).append("/").append(getQueueCapacity())
+                                  .append(", delivered ").append(getDeliveredCount())
+                                  .append(", dropped ").append(getDroppedCount())
+                                  .append(", pending writes ").append(getPendingWriteCount()).append("/").append(maxPendingWrites)
+                                  .append(", dropped writes ").append(getDroppedWriteCount())
+                                  .append(", coalesced ").append(getCoalescedWriteCount())
+                                  .toString();
+    }
+
+    private void pendingWrite(final K key, final Object value) {
+        if (pendingWrites.size() >= maxPendingWrites) {
+            // Full, only replace the value of a key that is already pending
+            if (null == pendingWrites.replace(key, value)) {
+                droppedWrites.increment();
+            } else {
+                coalesced.increment();
+            }
+            scheduleDrain();
+            return;
+        }
+        if (null != pendingWrites.put(key, value)) { coalesced.increment(); }
+        if (pendingWrites.size() >= BATCH_SIZE) { scheduleDrain(); }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.get() || !drainScheduled.compareAndSet(false, true)) { return; }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            drainScheduled.set(false);
+        }
+    }
+
+    private void drain() {
+        drainLock.lock();
+        try {
+            // Reset first, everything that is added from now on will schedule a new task
+            drainScheduled.set(false);
+            drainRemovals();
+            flushWrites();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    private void drainRemovals() {
+        final List<RemovalNotification<K, V>> batch = new ArrayList<>(BATCH_SIZE);
+        while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+            final RemovalListener<K, V> listener = removalListener;
+            if (null != listener) {
+                try {
+                    listener.onRemoval(batch);
+                    delivered.add(batch.size());
+                    batches.increment();
+                } catch (RuntimeException e) {
+                    listenerFailures.increment();
+                    System.out.println("Error in removal listener. " + e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flushWrites() {
+        final CacheWriter<K, V> writer = cacheWriter;
+        if (null == writer) {
+            pendingWrites.clear();
+            failedAttempts.clear();
+            return;
+        }
+        final Map<K, V>      writes  = new HashMap<>();
+        final List<K>        deletes = new ArrayList<>();
+        final Map<K, Object> failed  = new HashMap<>();
+        final Iterator<Map.Entry<K, Object>> iterator = pendingWrites.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<K, Object> entry = iterator.next();
+            final K                    key   = entry.getKey();
+            final Object               value = entry.getValue();
+            // Only take it if it was not written again in the meantime, otherwise the newer value stays for the next flush
+            if (!pendingWrites.remove(key, value)) { continue; }
+            if (DELETED == value) {
+                deletes.add(key);
+            } else {
+                writes.put(key, (V) value);
+            }
+            if (writes.size() + deletes.size() >= BATCH_SIZE) { callWriter(writer, writes, deletes, failed); }
+        }
+        callWriter(writer, writes, deletes, failed);
+        retry(failed);
+    }
+
+    // Only called by drain() which holds the drainLock, so failedAttempts needs no synchronization
+    private void retry(final Map<K, Object> failed) {
+        int dropped = 0;
+        for (Map.Entry<K, Object> entry : failed.entrySet()) {
+            final K key = entry.getKey();
+            if (failedAttempts.merge(key, 1, Integer::sum) >= MAX_WRITE_ATTEMPTS) {
+                failedAttempts.remove(key);
+                dropped++;
+            } else if (null != pendingWrites.putIfAbsent(key, entry.getValue())) {
+                // Written again in the meantime, the new value starts with a new count
+                failedAttempts.remove(key);
+            }
+        }
+        if (dropped > 0) {
+            droppedWrites.add(dropped);
+            System.out.println("Dropped " + dropped + " writes after " + MAX_WRITE_ATTEMPTS + " failed attempts");
+        }
+    }
+
+    private void callWriter(final CacheWriter<K, V> writer, final Map<K, V> writes, final List<K> deletes, final Map<K, Object> failed) {
+        if (!writes.isEmpty()) {
+            try {
+                writer.write(writes);
+                written.add(writes.size());
+                if (!failedAttempts.isEmpty()) { writes.keySet().forEach(failedAttempts::remove); }
+            } catch (RuntimeException e) {
+                writerFailures.increment();
+                System.out.println("Error in cache writer. " + e);
+                failed.putAll(writes);
+            }
+            writes.clear();
+        }
+        if (!deletes.isEmpty()) {
+            try {
+                writer.delete(deletes);
+                deleted.add(deletes.size());
+                if (!failedAttempts.isEmpty()) { deletes.forEach(failedAttempts::remove); }
+            } catch (RuntimeException e) {
+                writerFailures.increment();
+                System.out.println("Error in cache writer. " + e);
+                for (K key : deletes) { failed.put(key, DELETED); }
+            }
+            deletes.clear();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package eu.hansolo.crac4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+
+/**
+ * The CacheSnapshot writes cache entries with their remaining time to live to
+ * a compact binary file and reads them back. The file is written to a temporary
+ * file via a memory mapped buffer and moved to the given path afterwards, so that
+ * a crash while writing never leaves a broken snapshot behind.
+ * Layout of the file:
+ * magic (int), version (int), createdAt (long, epoch seconds), number of entries (int),
+ * entries (key, value, remaining time to live in seconds (int)), CRC32 of all bytes before (long)
+ * Keys and values are encoded with the given Codecs.
+ */
+public final class CacheSnapshot {
+    public  static final int MAGIC        = 0x43524334; // CRC4
+    public  static final int VERSION      = 1;
+    private static final int HEADER_SIZE  = Integer.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int TRAILER_SIZE = Long.BYTES;
+
+
+    // ******************** Constructors **************************************
+    private CacheSnapshot() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Writes the given entries to the given file.
+     * @param file       Path of the snapshot file
+     * @param entries    Entries with their remaining time to live
+     * @param keyCodec   Codec for the keys
+     * @param valueCodec Codec for the values
+     * @param now        Current second which will be stored as creation time
+     * @return the number of bytes written
+     * @throws IOException if the file could not be written or would be larger than 2GB
+     */
+    public static <K, V> long write(final Path file, final Collection<Entry<K, V>> entries, final Codec<K> keyCodec, final Codec<V> valueCodec, final long now) throws IOException {
+        long size = HEADER_SIZE + TRAILER_SIZE;
+        for (Entry<K, V> entry : entries) {
+            size += keyCodec.size(entry.key) + valueCodec.size(entry.value) + Integer.BYTES;
+        }
+        if (size > Integer.MAX_VALUE) { throw new IOException("Snapshot too large (" + size + " bytes)"); }
+
+        final Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(now);
+            buffer.putInt(entries.size());
+            for (Entry<K, V> entry : entries) {
+                keyCodec.write(buffer, entry.key);
+                valueCodec.write(buffer, entry.value);
+                buffer.putInt((int) Math.min(Integer.MAX_VALUE, entry.remaining));
+            }
+            buffer.putLong(checksum(buffer, buffer.position()));
+            buffer.force();
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    /**
+     * Reads all entries of the given snapshot file and passes them to the given consumer.
+     * @param file       Path of the snapshot file
+     * @param keyCodec   Codec for the keys
+     * @param valueCodec Codec for the values
+     * @param consumer   Will be called for every entry with it's remaining time to live in seconds
+     * @return the number of entries read
+     * @throws IOException if the file could not be read or is not a valid snapshot
+     */
+    public static <K, V> int read(final Path file, final Codec<K> keyCodec, final Codec<V> valueCodec, final EntryConsumer<K, V> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE || size > Integer.MAX_VALUE) { throw new IOException("Invalid snapshot size " + size); }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getLong((int) size - TRAILER_SIZE) != checksum(buffer, (int) size - TRAILER_SIZE)) { throw new IOException("Snapshot checksum mismatch"); }
+            if (buffer.getInt() != MAGIC)   { throw new IOException("Not a cache snapshot"); }
+            if (buffer.getInt() != VERSION) { throw new IOException("Unsupported snapshot version"); }
+            buffer.getLong(); // createdAt
+            final int count = buffer.getInt();
+            for (int i = 0 ; i < count ; i++) {
+                final K   key       = keyCodec.read(buffer);
+                final V   value     = valueCodec.read(buffer);
+                final int remaining = buffer.getInt();
+                consumer.accept(key, value, remaining);
+            }
+            return count;
+        }
+    }
+
+    private static long checksum(final ByteBuffer buffer, final int length) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(buffer.duplicate().position(0).limit(length));
+        return crc32.getValue();
+    }
+
+
+    // ******************** Internal classes **********************************
+    public static final class Entry<K, V> {
+        private final K    key;
+        private final V    value;
+        private final long remaining;
+
+
+        // ******************** Constructors **********************************
+        public Entry(final K key, final V value, final long remaining) {
+            this.key       = key;
+            this.value     = value;
+            this.remaining = remaining;
+        }
+
+
+        // ******************** Methods ***************************************
+        public K getKey() { return key; }
+
+        public V getValue() { return value; }
+
+        public long getRemaining() { return remaining; }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<K, V> {
+        void accept(K key, V value, long remaining);
+    }
+}
@@ -0,0 +1,413 @@
+package eu.hansolo.crac4;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+
+/**
+ * The CacheStats collect the statistics of a cache. All counters are LongAdders
+ * which are striped under contention, so recording does not become a bottleneck
+ * when many threads access the cache.
+ * The load times are recorded in a histogram with buckets of powers of two
+ * microseconds which is good enough to estimate percentiles.
+ * The stats can be published as MXBean by calling registerMXBean() and an
+ * immutable copy of all values can be taken with snapshot().
+ * onNextHit() runs an action once at the next hit, e.g. to record the first hit
+ * after a restore in the Timeline.
+ * The back-pressure of the CacheEventDispatchers that were added with
+ * addEventDispatcher() is published too, summed over all dispatchers (e.g. of all
+ * shards of a ShardedCache). These values are read from the dispatchers and are
+ * not affected by reset().
+ */
+public final class CacheStats implements CacheStatsMXBean {
+    public  static final String                           JMX_DOMAIN        = "eu.hansolo.crac4";
+    private static final int                              NO_OF_BUCKETS     = 32;
+    private final        IntSupplier                      sizeSupplier;
+    private final        LongAdder                        hits;
+    private final        LongAdder                        misses;
+    private final        LongAdder                        loads;
+    private final        LongAdder                        loadFailures;
+    private final        LongAdder                        totalLoadTime;
+    private final        LongAdder[]                      loadTimeHistogram;
+    private final        LongAdder[]                      removals;
+    private final        LongAdder                        rejected;
+    private final        LongAdder                        cleanCount;
+    private final        LongAdder                        totalCleanTime;
+    private final        LongAdder                        entriesScanned;
+    private final        AtomicReference<Runnable>        nextHitAction;
+    private final        List<CacheEventDispatcher<?, ?>> eventDispatchers;
+    private volatile     long                             lastCleanDuration;
+    private              ObjectName                       objectName;
+
+
+    // ******************** Constructors **************************************
+    public CacheStats(final IntSupplier sizeSupplier) {
+        this.sizeSupplier      = sizeSupplier;
+        this.hits              = new LongAdder();
+        this.misses            = new LongAdder();
+        this.loads             = new LongAdder();
+        this.loadFailures      = new LongAdder();
+        this.totalLoadTime     = new LongAdder();
+        this.loadTimeHistogram = newAdders(NO_OF_BUCKETS);
+        this.removals          = newAdders(RemovalCause.values().length);
+        this.rejected          = new LongAdder();
+        this.cleanCount        = new LongAdder();
+        this.totalCleanTime    = new LongAdder();
+        this.entriesScanned    = new LongAdder();
+        this.nextHitAction     = new AtomicReference<>();
+        this.eventDispatchers  = new CopyOnWriteArrayList<>();
+    }
+
+
+    // ******************** Recording *****************************************
+    public void recordHit() {
+        hits.increment();
+        // Only a volatile read on the hot path as long as no action is set
+        if (null != nextHitAction.get()) { runNextHitAction(); }
+    }
+
+    public void recordMiss() { misses.increment(); }
+
+    public void recordLoad(final long nanos) {
+        loads.increment();
+        recordLoadTime(nanos);
+    }
+
+    public void recordLoadFailure(final long nanos) {
+        loadFailures.increment();
+        recordLoadTime(nanos);
+    }
+
+    public void recordRemoval(final RemovalCause cause) { removals[cause.ordinal()].increment(); }
+
+    /**
+     * Records a put that was not cached, e.g. because the value is larger than the
+     * cache is able to store.
+     */
+    public void recordRejected() { rejected.increment(); }
+
+    public void recordClean(final long nanos, final long scanned) {
+        cleanCount.increment();
+        totalCleanTime.add(nanos);
+        entriesScanned.add(scanned);
+        lastCleanDuration = nanos;
+    }
+
+    /**
+     * Runs the given action once in the thread that records the next hit.
+     * @param action the action to run at the next hit
+     */
+    public void onNextHit(final Runnable action) { nextHitAction.set(action); }
+
+    private void runNextHitAction() {
+        final Runnable action = nextHitAction.getAndSet(null);
+        if (null != action) { action.run(); }
+    }
+
+    private void recordLoadTime(final long nanos) {
+        totalLoadTime.add(nanos);
+        loadTimeHistogram[bucketOf(nanos)].increment();
+    }
+
+
+    // ******************** MXBean Methods ************************************
+    @Override public long getSize() { return sizeSupplier.getAsInt(); }
+
+    @Override public long getHitCount() { return hits.sum(); }
+
+    @Override public long getMissCount() { return misses.sum(); }
+
+    @Override public double getHitRate() {
+        final long hitCount     = hits.sum();
+        final long requestCount = hitCount + misses.sum();
+        return 0 == requestCount ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override public long getLoadCount() { return loads.sum(); }
+
+    @Override public long getLoadFailureCount() { return loadFailures.sum(); }
+
+    @Override public double getAverageLoadTimeMicros() {
+        final long count = loads.sum() + loadFailures.sum();
+        return 0 == count ? 0 : totalLoadTime.sum() / 1_000.0 / count;
+    }
+
+    @Override public long getLoadTimeP50Micros() { return loadTimePercentileMicros(0.5); }
+
+    @Override public long getLoadTimeP99Micros() { return loadTimePercentileMicros(0.99); }
+
+    @Override public long getExpiredCount() { return removals[RemovalCause.EXPIRED.ordinal()].sum(); }
+
+    @Override public long getSizeEvictionCount() { return removals[RemovalCause.SIZE.ordinal()].sum(); }
+
+    @Override public long getExplicitRemovalCount() { return removals[RemovalCause.EXPLICIT.ordinal()].sum(); }
+
+    @Override public long getReplacedCount() { return removals[RemovalCause.REPLACED.ordinal()].sum(); }
+
+    @Override public long getCheckpointRemovalCount() { return removals[RemovalCause.CHECKPOINT.ordinal()].sum(); }
+
+    @Override public long getClearedCount() { return removals[RemovalCause.CLEARED.ordinal()].sum(); }
+
+    @Override public long getRejectedCount() { return rejected.sum(); }
+
+    @Override public long getCleanCount() { return cleanCount.sum(); }
+
+    @Override public long getLastCleanDurationMicros() { return lastCleanDuration / 1_000; }
+
+    @Override public long getTotalCleanTimeMillis() { return totalCleanTime.sum() / 1_000_000; }
+
+    @Override public long getEntriesScanned() { return entriesScanned.sum(); }
+
+    @Override public long getEventQueueSize() {
+        long size = 0;
+        for (CacheEventDispatcher<?, ?> dispatcher : eventDispatchers) { size += dispatcher.getQueueSize(); }
+        return size;
+    }
+
+    @Override public long getDroppedEventCount() {
+        long count = 0;
+        for (CacheEventDispatcher<?, ?> dispatcher : eventDispatchers) { count += dispatcher.getDroppedCount(); }
+        return count;
+    }
+
+    @Override public long getPendingWriteCount() {
+        long count = 0;
+        for (CacheEventDispatcher<?, ?> dispatcher : eventDispatchers) { count += dispatcher.getPendingWriteCount(); }
+        return count;
+    }
+
+    @Override public long getDroppedWriteCount() {
+        long count = 0;
+        for (CacheEventDispatcher<?, ?> dispatcher : eventDispatchers) { count += dispatcher.getDroppedWriteCount(); }
+        return count;
+    }
+
+    @Override public void reset() {
+        hits.reset();
+        misses.reset();
+        loads.reset();
+        loadFailures.reset();
+        totalLoadTime.reset();
+        for (LongAdder adder : loadTimeHistogram) { adder.reset(); }
+        for (LongAdder adder : removals) { adder.reset(); }
+        rejected.reset();
+        cleanCount.reset();
+        totalCleanTime.reset();
+        entriesScanned.reset();
+        lastCleanDuration = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the upper bound of the histogram bucket that contains the given percentile of all load times.
+     * @param percentile Percentile between 0 and 1
+     * @return the estimated load time in microseconds
+     */
+    public long loadTimePercentileMicros(final double percentile) {
+        final long[] counts = new long[NO_OF_BUCKETS];
+        long         total  = 0;
+        for (int i = 0 ; i < NO_OF_BUCKETS ; i++) {
+            counts[i] = loadTimeHistogram[i].sum();
+            total    += counts[i];
+        }
+        if (0 == total) { return 0; }
+        final long threshold = (long) Math.ceil(total * percentile);
+        long       sum       = 0;
+        for (int i = 0 ; i < NO_OF_BUCKETS ; i++) {
+            sum += counts[i];
+            if (sum >= threshold) { return 1L << i; }
+        }
+        return 1L << (NO_OF_BUCKETS - 1);
+    }
+
+    public Snapshot snapshot() { return new Snapshot(this); }
+
+    /**
+     * Publishes the queue size, the pending writes and the dropped events and writes
+     * of the given dispatcher in these stats.
+     * @param dispatcher Dispatcher of the cache (or of one shard of the cache)
+     */
+    public void addEventDispatcher(final CacheEventDispatcher<?, ?> dispatcher) { eventDispatchers.add(dispatcher); }
+
+    /**
+     * Registers the stats as MXBean with the name eu.hansolo.crac4:type=Cache,name=[name].
+     * An MXBean that was registered with the same name before will be replaced.
+     * @param name Name of the cache
+     */
+    public synchronized void registerMXBean(final String name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            unregisterMXBean();
+            final ObjectName newObjectName = new ObjectName(JMX_DOMAIN + ":type=Cache,name=" + ObjectName.quote(name));
+            try {
+                server.registerMBean(this, newObjectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(newObjectName);
+                server.registerMBean(this, newObjectName);
+            }
+            objectName = newObjectName;
+        } catch (JMException e) {
+            System.out.println("Error registering cache stats MXBean. " + e);
+        }
+    }
+
+    public synchronized void unregisterMXBean() {
+        if (null == objectName) { return; }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            System.out.println("Error unregistering cache stats MXBean. " + e);
+        }
+        objectName = null;
+    }
+
+    private static int bucketOf(final long nanos) {
+        final long micros = nanos / 1_000;
+        return Math.min(NO_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static LongAdder[] newAdders(final int count) {
+        final LongAdder[] adders = new LongAdder[count];
+        for (int i = 0 ; i < count ; i++) { adders[i] = new LongAdder(); }
+        return adders;
+    }
+
+
+    // ******************** Internal classes **********************************
+    /**
+     * Immutable copy of the stats at a point in time.
+     */
+    public static final class Snapshot {
+        private final long   size;
+        private final long   hitCount;
+        private final long   missCount;
+        private final double hitRate;
+        private final long   loadCount;
+        private final long   loadFailureCount;
+        private final double averageLoadTimeMicros;
+        private final long   loadTimeP99Micros;
+        private final long   expiredCount;
+        private final long   sizeEvictionCount;
+        private final long   explicitRemovalCount;
+        private final long   replacedCount;
+        private final long   checkpointRemovalCount;
+        private final long   clearedCount;
+        private final long   rejectedCount;
+        private final long   cleanCount;
+        private final long   lastCleanDurationMicros;
+        private final long   entriesScanned;
+        private final long   eventQueueSize;
+        private final long   droppedEventCount;
+        private final long   pendingWriteCount;
+        private final long   droppedWriteCount;
+
+
+        // ******************** Constructors **********************************
+        private Snapshot(final CacheStats stats) {
+            this.size                    = stats.getSize();
+            this.hitCount                = stats.getHitCount();
+            this.missCount               = stats.getMissCount();
+            this.hitRate                 = stats.getHitRate();
+            this.loadCount               = stats.getLoadCount();
+            this.loadFailureCount        = stats.getLoadFailureCount();
+            this.averageLoadTimeMicros   = stats.getAverageLoadTimeMicros();
+            this.loadTimeP99Micros       = stats.getLoadTimeP99Micros();
+            this.expiredCount            = stats.getExpiredCount();
+            this.sizeEvictionCount       = stats.getSizeEvictionCount();
+            this.explicitRemovalCount    = stats.getExplicitRemovalCount();
+            this.replacedCount           = stats.getReplacedCount();
+            this.checkpointRemovalCount  = stats.getCheckpointRemovalCount();
+            this.clearedCount            = stats.getClearedCount();
+            this.rejectedCount           = stats.getRejectedCount();
+            this.cleanCount              = stats.getCleanCount();
+            this.lastCleanDurationMicros = stats.getLastCleanDurationMicros();
+            this.entriesScanned          = stats.getEntriesScanned();
+            this.eventQueueSize          = stats.getEventQueueSize();
+            this.droppedEventCount       = stats.getDroppedEventCount();
+            this.pendingWriteCount       = stats.getPendingWriteCount();
+            this.droppedWriteCount       = stats.getDroppedWriteCount();
+        }
+
+
+        // ******************** Methods ***************************************
+        public long getSize() { return size; }
+
+        public long getHitCount() { return hitCount; }
+
+        public long getMissCount() { return missCount; }
+
+        public double getHitRate() { return hitRate; }
+
+        public long getLoadCount() { return loadCount; }
+
+        public long getLoadFailureCount() { return loadFailureCount; }
+
+        public double getAverageLoadTimeMicros() { return averageLoadTimeMicros; }
+
+        public long getLoadTimeP99Micros() { return loadTimeP99Micros; }
+
+        public long getExpiredCount() { return expiredCount; }
+
+        public long getSizeEvictionCount() { return sizeEvictionCount; }
+
+        public long getExplicitRemovalCount() { return explicitRemovalCount; }
+
+        public long getReplacedCount() { return replacedCount; }
+
+        public long getCheckpointRemovalCount() { return checkpointRemovalCount; }
+
+        public long getClearedCount() { return clearedCount; }
+
+        public long getRejectedCount() { return rejectedCount; }
+
+        public long getCleanCount() { return cleanCount; }
+
+        public long getLastCleanDurationMicros() { return lastCleanDurationMicros; }
+
+        public long getEntriesScanned() { return entriesScanned; }
+
+        public long getEventQueueSize() { return eventQueueSize; }
+
+        public long getDroppedEventCount() { return droppedEventCount; }
+
+        public long getPendingWriteCount() { return pendingWriteCount; }
+
+        public long getDroppedWriteCount() { return droppedWriteCount; }
+
+        @Override public String toString() {
+            return new StringBuilder().append("size=").append(size)
+                                      .append(", hits=").append(hitCount)
+                                      .append(", misses=").append(missCount)
+                                      .append(", hitRate=").append(String.format(Locale.US, "%.3f", hitRate))
+                                      .append(", loads=").append(loadCount)
+                                      .append(", loadFailures=").append(loadFailureCount)
+                                      .append(", avgLoad=").append(String.format(Locale.US, "%.1f", averageLoadTimeMicros)).append("us")
+                                      .append(", p99Load=").append(loadTimeP99Micros).append("us")
+                                      .append(", expired=").append(expiredCount)
+                                      .append(", evicted=").append(sizeEvictionCount)
+                                      .append(", removed=").append(explicitRemovalCount)
+                                      .append(", replaced=").append(replacedCount)
+                                      .append(", dropped=").append(checkpointRemovalCount)
+                                      .append(", cleared=").append(clearedCount)
+                                      .append(", rejected=").append(rejectedCount)
+                                      .append(", cleanRuns=").append(cleanCount)
+                                      .append(", lastClean=").append(lastCleanDurationMicros).append("us")
+                                      .append(", scanned=").append(entriesScanned)
+                                      .append(", eventQueue=").append(eventQueueSize)
+                                      .append(", droppedEvents=").append(droppedEventCount)
+                                      .append(", pendingWrites=").append(pendingWriteCount)
+                                      .append(", droppedWrites=").append(droppedWriteCount)
+                                      .toString();
+        }
+    }
+}
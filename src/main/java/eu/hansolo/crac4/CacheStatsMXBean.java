@@ -0,0 +1,57 @@
+package eu.hansolo.crac4;
+
+/**
+ * Management interface of the CacheStats, every cache that is registered
+ * will show up as eu.hansolo.crac4:type=Cache,name=[name] in JMX clients.
+ */
+public interface CacheStatsMXBean {
+    long getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadTimeMicros();
+
+    long getLoadTimeP50Micros();
+
+    long getLoadTimeP99Micros();
+
+    long getExpiredCount();
+
+    long getSizeEvictionCount();
+
+    long getExplicitRemovalCount();
+
+    long getReplacedCount();
+
+    long getCheckpointRemovalCount();
+
+    long getClearedCount();
+
+    long getRejectedCount();
+
+    long getCleanCount();
+
+    long getLastCleanDurationMicros();
+
+    long getTotalCleanTimeMillis();
+
+    long getEntriesScanned();
+
+    long getEventQueueSize();
+
+    long getDroppedEventCount();
+
+    long getPendingWriteCount();
+
+    long getDroppedWriteCount();
+
+    void reset();
+}
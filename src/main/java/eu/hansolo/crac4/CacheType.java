@@ -0,0 +1,25 @@
+package eu.hansolo.crac4;
+
+import java.util.Locale;
+
+
+public enum CacheType {
+    GENERIC,
+    BOUNDED,
+    PRIMITIVE,
+    TIERED,
+    SHARDED,
+    SHARED;
+
+
+    // ******************** Methods *******************************************
+    public static CacheType fromText(final String text) {
+        if (null == text || text.isBlank()) { return GENERIC; }
+        try {
+            return CacheType.valueOf(text.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown cache type " + text + ", using " + GENERIC);
+            return GENERIC;
+        }
+    }
+}
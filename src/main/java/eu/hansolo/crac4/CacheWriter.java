@@ -0,0 +1,24 @@
+package eu.hansolo.crac4;
+
+import java.util.Collection;
+import java.util.Map;
+
+
+/**
+ * A CacheWriter writes the entries that are put into a cache to another store
+ * (write-behind). The CacheEventDispatcher of the cache collects the writes and
+ * calls the writer asynchronously in batches, several writes of the same key
+ * between two calls are coalesced to the latest value.
+ * Only put() and remove() will be passed to the writer, values that are loaded by
+ * getOrCompute() or from a snapshot as well as expired and evicted entries will not.
+ * If a call throws an exception, the entries will be passed again with the next call
+ * unless they have been written again in the meantime. After MAX_WRITE_ATTEMPTS of
+ * the CacheEventDispatcher failed calls an entry will be dropped.
+ * @param <K> Key
+ * @param <V> Value
+ */
+public interface CacheWriter<K, V> {
+    void write(Map<K, V> entries);
+
+    void delete(Collection<K> keys);
+}
@@ -0,0 +1,53 @@
+package eu.hansolo.crac4;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * A Codec writes values of type T to a ByteBuffer and reads them back.
+ * It's used to store cache entries in a binary form, e.g. in a CacheSnapshot.
+ * @param <T> Type of the values
+ */
+public interface Codec<T> {
+    Codec<Long>    LONG    = new Codec<>() {
+        @Override public int size(final Long value) { return Long.BYTES; }
+        @Override public void write(final ByteBuffer buffer, final Long value) { buffer.putLong(value); }
+        @Override public Long read(final ByteBuffer buffer) { return buffer.getLong(); }
+    };
+    Codec<Integer> INTEGER = new Codec<>() {
+        @Override public int size(final Integer value) { return Integer.BYTES; }
+        @Override public void write(final ByteBuffer buffer, final Integer value) { buffer.putInt(value); }
+        @Override public Integer read(final ByteBuffer buffer) { return buffer.getInt(); }
+    };
+    Codec<Boolean> BOOLEAN = new Codec<>() {
+        @Override public int size(final Boolean value) { return 1; }
+        @Override public void write(final ByteBuffer buffer, final Boolean value) { buffer.put(value ? (byte) 1 : (byte) 0); }
+        @Override public Boolean read(final ByteBuffer buffer) { return buffer.get() != 0; }
+    };
+    Codec<String>  STRING  = new Codec<>() {
+        @Override public int size(final String value) { return Integer.BYTES + value.getBytes(StandardCharsets.UTF_8).length; }
+        @Override public void write(final ByteBuffer buffer, final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        @Override public String read(final ByteBuffer buffer) {
+            final byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+
+    /**
+     * Returns the number of bytes that write() will put in the buffer for the given value.
+     * @param value Value
+     * @return the encoded size of the given value in bytes
+     */
+    int size(T value);
+
+    void write(ByteBuffer buffer, T value);
+
+    T read(ByteBuffer buffer);
+}
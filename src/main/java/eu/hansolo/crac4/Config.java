@@ -0,0 +1,192 @@
+package eu.hansolo.crac4;
+
+import java.util.Objects;
+import java.util.Properties;
+
+
+/**
+ * Immutable, typed snapshot of the crac4.properties file.
+ * The PropertyManager creates a new Config every time the properties are
+ * (re-)loaded and publishes it in one volatile field, so reading a value is a
+ * plain field load and all values of one Config always belong together.
+ * Values that can not be parsed fall back to their default value.
+ */
+public final class Config {
+    private final long         interval;
+    private final long         initialCacheCleanDelay;
+    private final long         cacheTimeout;
+    private final boolean      cleanup;
+    private final CacheType    cacheType;
+    private final ExpiryPolicy cacheExpiry;
+    private final long         cacheMaximumSize;
+    private final int          cacheShards;
+    private final String       sharedFile;
+    private final int          sharedCapacity;
+    private final long         offHeapCapacity;
+    private final long         offHeapCacheTimeout;
+    private final boolean      snapshot;
+    private final String       snapshotFile;
+    private final boolean      snapshotDrop;
+    private final PrimeEngine  primeEngine;
+    private final boolean      autoCheckpoint;
+    private final double       warmupFillRatio;
+    private final double       warmupHitRate;
+    private final long         warmupJitQuietPeriod;
+    private final boolean      propertiesReload;
+    private final boolean      timeline;
+    private final String       timelineFolder;
+
+
+    // ******************** Constructors **************************************
+    private Config(final Properties properties) {
+        interval               = parseLong(properties, Constants.INTERVAL, Main.DEFAULT_INTERVAL);
+        initialCacheCleanDelay = parseLong(properties, Constants.INITIAL_CACHE_CLEAN_DELAY, GenericCache.DEFAULT_CACHE_DELAY);
+        cacheTimeout           = parseLong(properties, Constants.CACHE_TIMEOUT, GenericCache.DEFAULT_CACHE_TIMEOUT);
+        cleanup                = parseBoolean(properties, Constants.CLEANUP, false);
+        cacheType              = CacheType.fromText(parseString(properties, Constants.CACHE_TYPE, ""));
+        cacheExpiry            = ExpiryPolicy.fromText(parseString(properties, Constants.CACHE_EXPIRY, ""));
+        cacheMaximumSize       = parseLong(properties, Constants.CACHE_MAXIMUM_SIZE, BoundedCache.DEFAULT_MAXIMUM_SIZE);
+        cacheShards            = (int) parseLong(properties, Constants.CACHE_SHARDS, ShardedCache.DEFAULT_NO_OF_SHARDS);
+        sharedFile             = parseString(properties, Constants.SHARED_FILE, Constants.DEFAULT_SHARED_FILE);
+        sharedCapacity         = (int) parseLong(properties, Constants.SHARED_CAPACITY, SharedCache.DEFAULT_CAPACITY);
+        offHeapCapacity        = parseLong(properties, Constants.OFFHEAP_CAPACITY, OffHeapCache.DEFAULT_CAPACITY);
+        offHeapCacheTimeout    = parseLong(properties, Constants.OFFHEAP_CACHE_TIMEOUT, cacheTimeout * 10);
+        snapshot               = parseBoolean(properties, Constants.SNAPSHOT, false);
+        snapshotFile           = parseString(properties, Constants.SNAPSHOT_FILE, Constants.DEFAULT_SNAPSHOT_FILE);
+        snapshotDrop           = parseBoolean(properties, Constants.SNAPSHOT_DROP, false);
+        primeEngine            = PrimeEngine.fromText(parseString(properties, Constants.PRIME_ENGINE, ""));
+        autoCheckpoint         = parseBoolean(properties, Constants.AUTO_CHECKPOINT, false);
+        warmupFillRatio        = parseDouble(properties, Constants.WARMUP_FILL_RATIO, WarmupController.DEFAULT_FILL_RATIO);
+        warmupHitRate          = parseDouble(properties, Constants.WARMUP_HIT_RATE, WarmupController.DEFAULT_HIT_RATE);
+        warmupJitQuietPeriod   = parseLong(properties, Constants.WARMUP_JIT_QUIET_PERIOD, WarmupController.DEFAULT_JIT_QUIET_PERIOD);
+        propertiesReload       = parseBoolean(properties, Constants.PROPERTIES_RELOAD, false);
+        timeline               = parseBoolean(properties, Constants.TIMELINE, false);
+        timelineFolder         = parseString(properties, Constants.TIMELINE_FOLDER, Constants.HOME_FOLDER);
+    }
+
+
+    // ******************** Methods *******************************************
+    public static Config of(final Properties properties) { return new Config(properties); }
+
+    public long getInterval() { return interval; }
+
+    public long getInitialCacheCleanDelay() { return initialCacheCleanDelay; }
+
+    public long getCacheTimeout() { return cacheTimeout; }
+
+    public boolean isCleanup() { return cleanup; }
+
+    public CacheType getCacheType() { return cacheType; }
+
+    public ExpiryPolicy getCacheExpiry() { return cacheExpiry; }
+
+    public long getCacheMaximumSize() { return cacheMaximumSize; }
+
+    public int getCacheShards() { return cacheShards; }
+
+    public String getSharedFile() { return sharedFile; }
+
+    public int getSharedCapacity() { return sharedCapacity; }
+
+    public long getOffHeapCapacity() { return offHeapCapacity; }
+
+    public long getOffHeapCacheTimeout() { return offHeapCacheTimeout; }
+
+    public boolean isSnapshot() { return snapshot; }
+
+    public String getSnapshotFile() { return snapshotFile; }
+
+    public boolean isSnapshotDrop() { return snapshotDrop; }
+
+    public PrimeEngine getPrimeEngine() { return primeEngine; }
+
+    public boolean isAutoCheckpoint() { return autoCheckpoint; }
+
+    public double getWarmupFillRatio() { return warmupFillRatio; }
+
+    public double getWarmupHitRate() { return warmupHitRate; }
+
+    public long getWarmupJitQuietPeriod() { return warmupJitQuietPeriod; }
+
+    public boolean isPropertiesReload() { return propertiesReload; }
+
+    public boolean isTimeline() { return timeline; }
+
+    public String getTimelineFolder() { return timelineFolder; }
+
+    @Override public boolean equals(final Object o) {
+        if (this == o) { return true; }
+        if (!(o instanceof Config config)) { return false; }
+        return interval               == config.interval &&
+               initialCacheCleanDelay == config.initialCacheCleanDelay &&
+               cacheTimeout           == config.cacheTimeout &&
+               cleanup                == config.cleanup &&
+               cacheType              == config.cacheType &&
+               cacheExpiry            == config.cacheExpiry &&
+               cacheMaximumSize       == config.cacheMaximumSize &&
+               cacheShards            == config.cacheShards &&
+               sharedFile.equals(config.sharedFile) &&
+               sharedCapacity         == config.sharedCapacity &&
+               offHeapCapacity        == config.offHeapCapacity &&
+               offHeapCacheTimeout    == config.offHeapCacheTimeout &&
+               snapshot               == config.snapshot &&
+               snapshotFile.equals(config.snapshotFile) &&
+               snapshotDrop           == config.snapshotDrop &&
+               primeEngine            == config.primeEngine &&
+               autoCheckpoint         == config.autoCheckpoint &&
+               Double.compare(warmupFillRatio, config.warmupFillRatio) == 0 &&
+               Double.compare(warmupHitRate, config.warmupHitRate) == 0 &&
+               warmupJitQuietPeriod   == config.warmupJitQuietPeriod &&
+               propertiesReload       == config.propertiesReload &&
+               timeline               == config.timeline &&
+               timelineFolder.equals(config.timelineFolder);
+    }
+
+    @Override public int hashCode() {
+        return Objects.hash(interval, initialCacheCleanDelay, cacheTimeout, cleanup, cacheType, cacheExpiry, cacheMaximumSize, cacheShards, sharedFile,
+                            sharedCapacity, offHeapCapacity, offHeapCacheTimeout, snapshot, snapshotFile, snapshotDrop, primeEngine, autoCheckpoint,
+                            warmupFillRatio, warmupHitRate, warmupJitQuietPeriod, propertiesReload, timeline, timelineFolder);
+    }
+
+    @Override public String toString() {
+        return new StringBuilder().append("Config(").append("interval=").append(interval)
+                                  .append(", cache_timeout=").append(cacheTimeout)
+                                  .append(", cache_type=").append(cacheType)
+                                  .append(", cache_expiry=").append(cacheExpiry)
+                                  .append(", prime_engine=").append(primeEngine)
+                                  .append(")")
+                                  .toString();
+    }
+
+    private static String parseString(final Properties properties, final String key, final String defaultValue) {
+        final String value = properties.getProperty(key);
+        return null == value ? defaultValue : value.trim();
+    }
+
+    private static long parseLong(final Properties properties, final String key, final long defaultValue) {
+        final String value = parseString(properties, key, null);
+        if (null == value) { return defaultValue; }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static double parseDouble(final Properties properties, final String key, final double defaultValue) {
+        final String value = parseString(properties, key, null);
+        if (null == value) { return defaultValue; }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static boolean parseBoolean(final Properties properties, final String key, final boolean defaultValue) {
+        final String value = parseString(properties, key, null);
+        return null == value ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
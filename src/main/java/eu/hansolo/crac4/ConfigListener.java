@@ -0,0 +1,12 @@
+package eu.hansolo.crac4;
+
+/**
+ * A ConfigListener will be informed by the PropertyManager if a reload of the
+ * crac4.properties file changed the Config.
+ * It is called in the thread that reloaded the properties (e.g. the watcher thread
+ * or the thread that calls afterRestore()), so it should return quickly.
+ */
+@FunctionalInterface
+public interface ConfigListener {
+    void onConfigChanged(Config oldConfig, Config newConfig);
+}
@@ -10,4 +10,25 @@ public class Constants {
     public static final String INITIAL_CACHE_CLEAN_DELAY = "initial_cache_clean_delay";
     public static final String CACHE_TIMEOUT             = "cache_timeout";
     public static final String CLEANUP                   = "cleanup";
+    public static final String CACHE_TYPE                = "cache_type";
+    public static final String CACHE_EXPIRY              = "cache_expiry";
+    public static final String CACHE_MAXIMUM_SIZE        = "cache_maximum_size";
+    public static final String CACHE_SHARDS              = "cache_shards";
+    public static final String SHARED_FILE               = "shared_file";
+    public static final String SHARED_CAPACITY           = "shared_capacity";
+    public static final String OFFHEAP_CAPACITY          = "offheap_capacity";
+    public static final String OFFHEAP_CACHE_TIMEOUT     = "offheap_cache_timeout";
+    public static final String SNAPSHOT                  = "snapshot";
+    public static final String SNAPSHOT_FILE             = "snapshot_file";
+    public static final String SNAPSHOT_DROP             = "snapshot_drop_on_checkpoint";
+    public static final String PRIME_ENGINE              = "prime_engine";
+    public static final String AUTO_CHECKPOINT           = "auto_checkpoint";
+    public static final String WARMUP_FILL_RATIO         = "warmup_fill_ratio";
+    public static final String WARMUP_HIT_RATE           = "warmup_hit_rate";
+    public static final String WARMUP_JIT_QUIET_PERIOD   = "warmup_jit_quiet_period";
+    public static final String PROPERTIES_RELOAD         = "properties_reload";
+    public static final String TIMELINE                  = "timeline";
+    public static final String TIMELINE_FOLDER           = "timeline_folder";
+    public static final String DEFAULT_SNAPSHOT_FILE     = new StringBuilder(HOME_FOLDER).append("crac4-cache.snapshot").toString();
+    public static final String DEFAULT_SHARED_FILE       = new StringBuilder(HOME_FOLDER).append("crac4-cache.shared").toString();
 }
@@ -0,0 +1,26 @@
+package eu.hansolo.crac4;
+
+import java.util.Locale;
+
+
+/**
+ * Defines how the expiration time of a cached entry will be calculated.
+ * AFTER_WRITE: the entry expires cacheTimeout seconds after it was put in the cache
+ * AFTER_ACCESS: the entry expires cacheTimeout seconds after it was put in the cache or read the last time
+ */
+public enum ExpiryPolicy {
+    AFTER_WRITE,
+    AFTER_ACCESS;
+
+
+    // ******************** Methods *******************************************
+    public static ExpiryPolicy fromText(final String text) {
+        if (null == text || text.isBlank()) { return AFTER_ACCESS; }
+        try {
+            return ExpiryPolicy.valueOf(text.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown expiry policy " + text + ", using " + AFTER_ACCESS);
+            return AFTER_ACCESS;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package eu.hansolo.crac4;
+
+import java.util.Arrays;
+
+
+/**
+ * The FrequencySketch is a count-min sketch with 4-bit counters that estimates
+ * how often a key was requested in the recent past. Every long in the table holds
+ * 16 counters and every key is mapped to 4 counters, the estimated frequency is
+ * the minimum of those. To let old keys age out, all counters will be halved
+ * after a sample of 10 times the expected number of entries has been recorded.
+ * The table has one long per expected entry but at most MAX_ENTRIES longs (8 MB),
+ * a larger cache gets less accurate estimates.
+ * The sketch is not thread safe, the caller has to guard it.
+ * @param <K> Key
+ */
+public class FrequencySketch<K> {
+    public  static final int    MAX_ENTRIES = 1 << 20;
+    private static final long[] SEEDS       = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long   RESET_MASK  = 0x7777777777777777L;
+    private static final int    MAX_COUNT   = 15;
+    private final        long[] table;
+    private final        int    tableMask;
+    private final        int    sampleSize;
+    private              int    additions;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param expectedEntries Expected number of entries in the cache (not the weight)
+     */
+    public FrequencySketch(final long expectedEntries) {
+        final int size = (int) Math.min(Math.max(expectedEntries, 16), MAX_ENTRIES);
+        this.table      = new long[Integer.highestOneBit(size - 1) << 1];
+        this.tableMask  = table.length - 1;
+        this.sampleSize = 10 * size;
+        this.additions  = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int frequency(final K key) {
+        final int hash      = spread(key.hashCode());
+        int       frequency = MAX_COUNT;
+        for (int i = 0 ; i < 4 ; i++) {
+            final int index  = indexOf(hash, i);
+            final int offset = counterOffset(hash, i);
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    public void increment(final K key) {
+        final int hash  = spread(key.hashCode());
+        boolean   added = false;
+        for (int i = 0 ; i < 4 ; i++) {
+            final int  index  = indexOf(hash, i);
+            final int  offset = counterOffset(hash, i);
+            final long mask   = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) { reset(); }
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        additions = 0;
+    }
+
+    private void reset() {
+        for (int i = 0 ; i < table.length ; i++) { table[i] = (table[i] >>> 1) & RESET_MASK; }
+        additions >>>= 1;
+    }
+
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int counterOffset(final int hash, final int i) { return ((hash >>> (i << 3)) & 15) << 2; }
+
+    private static int spread(final int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -3,15 +3,22 @@ package eu.hansolo.crac4;
 import jdk.crac.*;
 //import org.crac.*;
 
-import java.time.Instant;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 
 /**
@@ -21,11 +28,28 @@ import java.util.stream.Collectors;
  * object will be created that contains the value and the point in time where
  * this value will be outdated. The max age for the values can be defined
  * in the constructor cacheTimeout parameter (in seconds).
- * Everytime a key is read from the map, it's expiration time will be extended
- * by the value given by cacheTimeout.
+ * With the default ExpiryPolicy.AFTER_ACCESS everytime a key is read from the map,
+ * it's expiration time will be set to now + cacheTimeout. The expiration time is
+ * only updated with a CAS if it moves forward, which happens at most once per second
+ * and key because the clock has a resolution of seconds, so concurrent reads neither
+ * lose an update nor write the same field over and over again.
+ * With ExpiryPolicy.AFTER_WRITE the expiration time will not be changed by reads.
  * With this approach values that will be read more often will stay in the cache
  * where values that are not read within the cacheTimeout will be removed from the
  * cache.
+ * The keys are also added to a TimerWheel at the second they will expire, so that
+ * clean() only has to look at keys that are due instead of scanning the whole map.
+ * Keys whose expiration time was extended in the meantime will simply be re-scheduled.
+ * Values that are computed with getOrCompute() will only be computed once, concurrent
+ * callers for the same key will wait for the result of the thread that computes it.
+ * The content of the cache can be written to a CacheSnapshot file and loaded
+ * from it again (e.g. for a warm start without CRaC). If snapshots are enabled,
+ * the snapshot will be written in beforeCheckpoint() and if dropOnCheckpoint is
+ * set, the map will be cleared before the checkpoint and loaded from the snapshot
+ * in afterRestore(), which keeps the cached values out of the checkpoint image.
+ * A RemovalListener and a CacheWriter (write-behind) can be set, both are called
+ * asynchronously in batches by a CacheEventDispatcher, so they never block put()
+ * or clean().
  * This class only implements Resource to show the order of resource registering and
  * de-registering in the global context, meaning to say it's NOT needed to implement
  * Resource here because this class does not rely on any resources.
@@ -33,14 +57,36 @@ import java.util.stream.Collectors;
  * @param <V> Value to cache for the key
  */
 public class GenericCache<K, V> implements Resource, Cache<K, V> {
-    public    static final long                     DEFAULT_CACHE_DELAY   = 30;
-    public    static final long                     DEFAULT_CACHE_TIMEOUT = 60;
-    private   static final int                      INTERVAL              = 1;
-    protected              Map<K, CacheValue<V>>    map;
-    protected              long                     cacheTimeout;
-    private                long                     checkpointAt;
-    private                Runnable                 task;
-    private                ScheduledExecutorService executorService;
+    public    static final long                             DEFAULT_CACHE_DELAY   = 30;
+    public    static final long                             DEFAULT_CACHE_TIMEOUT = 60;
+    private   static final long                             PURGE_THRESHOLD       = 1_024;
+    private   static final int                              PURGE_ASSIST          = 8;
+    private   static final VarHandle                        OUTDATED_AT;
+    protected final        Map<K, CacheValue<V>>            map;
+    private   final        Map<K, CompletableFuture<V>>     loads;
+    protected final        CacheStats                       stats;
+    protected volatile     long                             cacheTimeout;
+    protected final        ExpiryPolicy                     expiryPolicy;
+    private   final        MaintenanceScheduler.Maintenance maintenance;
+    private                long                             checkpointAt;
+    private   volatile     long                             pausedSeconds;
+    private                TimerWheel<K>                    timerWheel;
+    private                TimerWheel.BucketVisitor<K>      expiry;
+    private                TimerWheel.BucketFilter<K>       stale;
+    private                Path                             snapshotFile;
+    private                Codec<K>                         keyCodec;
+    private                Codec<V>                         valueCodec;
+    private                boolean                          dropOnCheckpoint;
+    private   volatile     CacheEventDispatcher<K, V>       eventDispatcher;
+
+
+    static {
+        try {
+            OUTDATED_AT = MethodHandles.lookup().findVarHandle(GenericCache.CacheValue.class, "outdatedAt", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
 
     // ******************** Constructors **************************************
@@ -48,77 +94,423 @@ public class GenericCache<K, V> implements Resource, Cache<K, V> {
         this(DEFAULT_CACHE_DELAY, DEFAULT_CACHE_TIMEOUT);
     }
     public GenericCache(final long initialDelay, final long cacheTimeout) {
-        this.task            = () -> clean();
-        this.executorService = Executors.newSingleThreadScheduledExecutor();
-        this.cacheTimeout    = cacheTimeout;
+        this(initialDelay, cacheTimeout, ExpiryPolicy.AFTER_ACCESS);
+    }
+    public GenericCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy) {
+        this(initialDelay, cacheTimeout, expiryPolicy, null);
+    }
+    // Used by the ShardedCache to record the stats of all shards in one CacheStats
+    GenericCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final CacheStats stats) {
+        this.map          = new ConcurrentHashMap<>();
+        this.loads        = new ConcurrentHashMap<>();
+        this.stats        = null == stats ? new CacheStats(() -> size()) : stats;
+        this.cacheTimeout = cacheTimeout;
+        this.expiryPolicy = expiryPolicy;
+        this.expiry       = (tick, key) -> expire(tick, key);
+        this.stale        = (tick, key) -> isStale(tick, key);
+        this.timerWheel   = new TimerWheel<>(cacheTimeout, now());
         this.clear();
 
         // Register this class as resource in the global context of CRaC
+        final Timeline.Span registration = Timeline.INSTANCE.begin(TimelinePhase.REGISTRATION, "GenericCache");
         System.out.println("Register Resource: GenericCache");
         Core.getGlobalContext().register(GenericCache.this);
+        registration.end();
 
-        // Start the executor service that calls clean() every second
-        this.executorService.scheduleAtFixedRate(task, initialDelay, INTERVAL, TimeUnit.SECONDS);
+        // The shared MaintenanceScheduler calls clean() every second
+        this.maintenance = MaintenanceScheduler.INSTANCE.register(GenericCache.this, initialDelay);
     }
 
 
     // ******************** CRaC Methods **************************************
     @Override public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
         System.out.println("beforeCheckpoint() called in GenericCache");
-        checkpointAt = Instant.now().getEpochSecond();
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.BEFORE_CHECKPOINT, "GenericCache");
+        checkpointAt = currentSecond();
         // Free resources or stop services
-        executorService.shutdown();
-        executorService.awaitTermination(5, TimeUnit.SECONDS);
-        executorService = null;
+        maintenance.pause();
+
+        if (isSnapshotEnabled()) {
+            saveSnapshot();
+            if (dropOnCheckpoint) { dropForCheckpoint(); }
+        }
+        // Listener and writer should be done before the checkpoint
+        if (null != eventDispatcher) { eventDispatcher.drainNow(); }
+        span.end();
     }
 
     @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
         System.out.println("afterRestore() called in GenericCache");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.AFTER_RESTORE, "GenericCache");
         /*
         * Take pause time into account for cached values
         * Important because otherwise with the next call to clean() all values
         * will be outdated and the cache will be completely empty
+        * All deadlines are relative to the clock of the cache, so instead of
+        * shifting every entry only the clock has to be set back
         */
-        long delta = Instant.now().getEpochSecond() - checkpointAt;
-        map.entrySet().forEach(entry -> entry.getValue().setOutdatedAt(entry.getValue().outdatedAt + delta));
+        pausedSeconds += currentSecond() - checkpointAt;
+        if (isSnapshotEnabled() && dropOnCheckpoint) {
+            // Remaining time to live in the snapshot is relative to now
+            loadSnapshot();
+        }
 
         // Restore resources or re-start services
-        executorService = Executors.newSingleThreadScheduledExecutor();
-        executorService.scheduleAtFixedRate(task, 0, INTERVAL, TimeUnit.SECONDS);
+        maintenance.resume();
+        span.end();
     }
 
 
     // ******************** Cache Methods *************************************
     @Override public boolean containsKey(final K key) { return this.map.containsKey(key); }
 
-    @Override public Optional<V> get(final K key) { return Optional.ofNullable(this.map.get(key)).map(CacheValue::getValue); }
+    @Override public Optional<V> get(final K key) {
+        final CacheValue<V> cacheValue = this.map.get(key);
+        if (null == cacheValue) {
+            stats.recordMiss();
+            return Optional.empty();
+        }
+        stats.recordHit();
+        return Optional.ofNullable(cacheValue.getValue());
+    }
+
+    @Override public void put(final K key, final V value) {
+        insert(key, value);
+        final CacheEventDispatcher<K, V> eventDispatcher = this.eventDispatcher;
+        if (null != eventDispatcher) { eventDispatcher.written(key, value); }
+    }
+
+    protected void put(final K key, final V value, final long outdatedAt) {
+        final CacheValue<V> cacheValue = this.createCacheValue(value, outdatedAt);
+        final CacheValue<V> replaced   = this.map.put(key, cacheValue);
+        // Schedule after the value is in the map, otherwise clean() might drop the key as stale
+        final long scheduledAt = null == replaced ? 0 : replaced.getScheduledAt();
+        if (scheduledAt > this.timerWheel.getCurrentTick() && scheduledAt <= cacheValue.getOutdatedAt() + 1) {
+            /*
+             * The key of the replaced value is still in a bucket that was not visited yet
+             * and that is not later than the new deadline. The new value takes over that
+             * bucket and will be re-scheduled when it is visited, otherwise every put of
+             * an existing key would leave a stale key in the wheel until it's bucket is due.
+             */
+            cacheValue.setScheduledAt(scheduledAt);
+        } else {
+            cacheValue.setScheduledAt(this.timerWheel.schedule(key, cacheValue.getOutdatedAt() + 1));
+            // Writers that add keys help to purge the stale ones, so that the purge keeps up with them
+            if (this.timerWheel.isPurging()) { this.timerWheel.assistPurge(stale, PURGE_ASSIST); }
+        }
+        if (null != replaced) { removed(key, replaced, RemovalCause.REPLACED); }
+    }
 
-    @Override public void put(final K key, final V value) { this.map.put(key, this.createCacheValue(value)); }
+    @Override public void remove(final K key) {
+        final CacheValue<V> cacheValue = this.map.remove(key);
+        if (null != cacheValue) { removed(key, cacheValue, RemovalCause.EXPLICIT); }
+    }
 
-    @Override public void remove(final K key) { this.map.remove(key); }
+    @Override public V getOrCompute(final K key, final Function<? super K, ? extends V> function) {
+        final Optional<V> value = get(key);
+        if (value.isPresent()) { return value.get(); }
+        final CompletableFuture<V> future   = new CompletableFuture<>();
+        final CompletableFuture<V> inFlight = loads.putIfAbsent(key, future);
+        if (null != inFlight) { return await(inFlight); }
+        return load(key, function, future);
+    }
 
-    @Override public void clear() { this.map = new ConcurrentHashMap<>(); }
+    @Override public CompletableFuture<V> getOrComputeAsync(final K key, final Function<? super K, ? extends V> function, final Executor executor) {
+        final Optional<V> value = get(key);
+        if (value.isPresent()) { return CompletableFuture.completedFuture(value.get()); }
+        final CompletableFuture<V> future   = new CompletableFuture<>();
+        final CompletableFuture<V> inFlight = loads.putIfAbsent(key, future);
+        // Hand out copies so that callers can not complete the shared future
+        if (null != inFlight) { return inFlight.copy(); }
+        try {
+            executor.execute(() -> {
+                try {
+                    load(key, function, future);
+                } catch (RuntimeException | Error e) {
+                    // Already passed to the future in load()
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loads.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future.copy();
+    }
 
-    @Override public void clean() { this.map.keySet().removeAll(getExpiredKeys()); }
+    /**
+     * Removes all entries with RemovalCause.CLEARED, the RemovalListener receives
+     * every removed entry.
+     */
+    @Override public void clear() { clear(RemovalCause.CLEARED); }
 
-    public int size() { return map.size(); }
+    @Override public void clean() { clean(now()); }
 
-    protected Set<K> getExpiredKeys() {
-        final long now = Instant.now().getEpochSecond();
-        return this.map.keySet().parallelStream()
-                       .filter(key -> isExpired(now, key))
-                       .collect(Collectors.toSet());
+    // Package private to be able to benchmark clean() with entries that are due without waiting
+    void clean(final long now) {
+        final long start   = System.nanoTime();
+        long       scanned = this.timerWheel.advance(now, expiry);
+        // Keys of removed entries stay in their bucket until it is due, they are purged once they outnumber the entries
+        if (this.timerWheel.getNoOfKeys() > 2L * map.size() + PURGE_THRESHOLD) { scanned += this.timerWheel.purge(stale); }
+        stats.recordClean(System.nanoTime() - start, scanned);
+        // Hands the removals and the coalesced writes of the last second to the listener and writer
+        if (null != eventDispatcher) { eventDispatcher.flush(); }
     }
 
-    protected boolean isExpired(final long now, final K key) { return now > map.get(key).getOutdatedAt(); }
+    @Override public int size() { return map.size(); }
 
-    protected CacheValue<V> createCacheValue(final V value) { return new CacheValue<>(value, Instant.now().getEpochSecond() + cacheTimeout); }
+    @Override public CacheStats getStats() { return stats; }
+
+    public long getCacheTimeout() { return cacheTimeout; }
+    /**
+     * Changes the cache timeout at runtime. The new timeout will be used for entries
+     * that are written (or read with AFTER_ACCESS) afterwards, expiration times of
+     * existing entries will not be shortened.
+     * @param cacheTimeout Timeout in seconds
+     */
+    public void setCacheTimeout(final long cacheTimeout) {
+        if (cacheTimeout < 1) { throw new IllegalArgumentException("cacheTimeout must be > 0"); }
+        this.cacheTimeout = cacheTimeout;
+    }
+
+
+    // ******************** Event Methods *************************************
+    /**
+     * Sets the listener that will be informed asynchronously about removed entries.
+     * @param removalListener Listener or null to remove it
+     */
+    public void setRemovalListener(final RemovalListener<K, V> removalListener) { eventDispatcher().setRemovalListener(removalListener); }
+
+    /**
+     * Sets the writer that will be called asynchronously with the values that have been
+     * put into or removed from the cache (write-behind).
+     * @param cacheWriter Writer or null to remove it
+     */
+    public void setCacheWriter(final CacheWriter<K, V> cacheWriter) { eventDispatcher().setCacheWriter(cacheWriter); }
+
+    /**
+     * Returns the dispatcher that delivers the events to the listener and the writer,
+     * e.g. to monitor the back-pressure, or null if none of them was set.
+     */
+    public CacheEventDispatcher<K, V> getEventDispatcher() { return eventDispatcher; }
+
+    private synchronized CacheEventDispatcher<K, V> eventDispatcher() {
+        if (null == eventDispatcher) {
+            eventDispatcher = new CacheEventDispatcher<>(ForkJoinPool.commonPool());
+            // The stats of a ShardedCache are shared, so they sum up the dispatchers of all shards
+            stats.addEventDispatcher(eventDispatcher);
+        }
+        return eventDispatcher;
+    }
+
+
+    // ******************** Snapshot Methods **********************************
+    /**
+     * Enables writing the content of the cache to the given file in beforeCheckpoint()
+     * and by calling saveSnapshot() (e.g. in a shutdown hook).
+     * @param snapshotFile     Path of the snapshot file
+     * @param keyCodec         Codec for the keys
+     * @param valueCodec       Codec for the values
+     * @param dropOnCheckpoint If true the map will be cleared before a checkpoint and loaded from the snapshot after restore
+     */
+    public void enableSnapshots(final Path snapshotFile, final Codec<K> keyCodec, final Codec<V> valueCodec, final boolean dropOnCheckpoint) {
+        this.snapshotFile     = snapshotFile;
+        this.keyCodec         = keyCodec;
+        this.valueCodec       = valueCodec;
+        this.dropOnCheckpoint = dropOnCheckpoint;
+    }
+
+    public boolean isSnapshotEnabled() { return null != snapshotFile; }
+
+    public void saveSnapshot() {
+        if (!isSnapshotEnabled()) { return; }
+        try {
+            final long start = System.nanoTime();
+            final long bytes = saveSnapshot(snapshotFile, keyCodec, valueCodec);
+            System.out.println("Saved " + size() + " cache entries (" + bytes + " bytes) to " + snapshotFile + " in " + ((System.nanoTime() - start) / 1_000_000) + " ms");
+        } catch (IOException e) {
+            System.out.println("Error saving cache snapshot. " + e);
+        }
+    }
+
+    public void loadSnapshot() {
+        if (!isSnapshotEnabled() || !Files.exists(snapshotFile)) { return; }
+        try {
+            final long start  = System.nanoTime();
+            final int  loaded = loadSnapshot(snapshotFile, keyCodec, valueCodec);
+            System.out.println("Loaded " + loaded + " cache entries from " + snapshotFile + " in " + ((System.nanoTime() - start) / 1_000_000) + " ms");
+        } catch (IOException e) {
+            System.out.println("Error loading cache snapshot. " + e);
+        }
+    }
+
+    public long saveSnapshot(final Path file, final Codec<K> keyCodec, final Codec<V> valueCodec) throws IOException {
+        final long                            now     = now();
+        final List<CacheSnapshot.Entry<K, V>> entries = new ArrayList<>(map.size());
+        map.forEach((key, cacheValue) -> {
+            final long remaining = cacheValue.getOutdatedAt() - now;
+            if (remaining >= 0) { entries.add(new CacheSnapshot.Entry<>(key, cacheValue.value, remaining)); }
+        });
+        return CacheSnapshot.write(file, entries, keyCodec, valueCodec, currentSecond());
+    }
+
+    /**
+     * Puts all entries of the given snapshot file in the cache, the remaining time
+     * to live of the entries starts now.
+     * @return the number of entries in the snapshot file
+     */
+    public int loadSnapshot(final Path file, final Codec<K> keyCodec, final Codec<V> valueCodec) throws IOException {
+        final long now = now();
+        return CacheSnapshot.read(file, keyCodec, valueCodec, (key, value, remaining) -> put(key, value, now + remaining));
+    }
+
+    /**
+     * Computes the value for the given key, puts it in the cache and completes the
+     * given future that was registered in loads with it. The map will be checked again
+     * because another thread might have finished loading the key in the meantime.
+     */
+    private V load(final K key, final Function<? super K, ? extends V> function, final CompletableFuture<V> future) {
+        try {
+            final CacheValue<V> cacheValue = map.get(key);
+            final V             value;
+            if (null == cacheValue) {
+                value = compute(key, function);
+                // Not put(), computed values are not passed to the CacheWriter
+                insert(key, value);
+            } else {
+                value = cacheValue.getValue();
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, future);
+        }
+    }
+
+    private void insert(final K key, final V value) {
+        put(key, value, now() + cacheTimeout);
+        maintenance.afterWrite();
+    }
+
+    private void dropForCheckpoint() { clear(RemovalCause.CHECKPOINT); }
+
+    /**
+     * Removes all entries with the given cause, the listener receives them in batches
+     * so that the bounded queue does not overflow. Subclasses that keep their own
+     * bookkeeping have to override this method instead of clear().
+     * @param cause Reason for the removal, CLEARED or CHECKPOINT
+     */
+    protected void clear(final RemovalCause cause) {
+        /*
+         * Clear the map in place instead of replacing it, a put() that runs concurrently
+         * would otherwise end up in the old map and get lost.
+         * The wheel has to be cleared first, a key that is still in the map afterwards
+         * was put after the wheel was cleared and therefore is scheduled in the new wheel.
+         * Every key is removed with whatever value it has at that moment (like map.clear()
+         * would do), so a value that was replaced concurrently is not left behind.
+         */
+        this.timerWheel.clear(now());
+        final CacheEventDispatcher<K, V> eventDispatcher = this.eventDispatcher;
+        int count = 0;
+        for (K key : map.keySet()) {
+            final CacheValue<V> cacheValue = map.remove(key);
+            if (null == cacheValue) { continue; }
+            removed(key, cacheValue, cause);
+            if (null != eventDispatcher && ++count % CacheEventDispatcher.BATCH_SIZE == 0) { eventDispatcher.drainNow(); }
+        }
+    }
+
+    private V compute(final K key, final Function<? super K, ? extends V> function) {
+        final long start = System.nanoTime();
+        try {
+            final V value = function.apply(key);
+            stats.recordLoad(System.nanoTime() - start);
+            return value;
+        } catch (RuntimeException | Error e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private static <V> V await(final CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) { throw runtimeException; }
+            if (e.getCause() instanceof Error error) { throw error; }
+            throw e;
+        }
+    }
+
+    /**
+     * Will be called by the TimerWheel for every key in a bucket that is due.
+     * The bucket might contain stale keys (removed, replaced or already re-scheduled)
+     * which will be skipped. Keys that are not expired because they have been read
+     * in the meantime will be re-scheduled to their new expiration time.
+     * @param tick Second of the bucket that is visited
+     * @param key  Key in the bucket
+     */
+    protected void expire(final long tick, final K key) {
+        final CacheValue<V> cacheValue = map.get(key);
+        if (null == cacheValue || cacheValue.getScheduledAt() > tick) { return; }
+        if (isExpired(tick, cacheValue)) {
+            if (map.remove(key, cacheValue)) { removed(key, cacheValue, RemovalCause.EXPIRED); }
+        } else {
+            cacheValue.setScheduledAt(timerWheel.schedule(key, cacheValue.getOutdatedAt() + 1));
+        }
+    }
+
+    /**
+     * Returns true if the given key in the bucket of the given tick will be skipped
+     * by expire() anyway, because it was removed or is scheduled in a later bucket.
+     */
+    private boolean isStale(final long tick, final K key) {
+        final CacheValue<V> cacheValue = map.get(key);
+        return null == cacheValue || cacheValue.getScheduledAt() > tick;
+    }
+
+    /**
+     * Records the removal of the given entry, calls onRemoval() and passes it to
+     * the RemovalListener (if any).
+     */
+    protected final void removed(final K key, final CacheValue<V> cacheValue, final RemovalCause cause) {
+        stats.recordRemoval(cause);
+        onRemoval(key, cacheValue, cause);
+        final CacheEventDispatcher<K, V> eventDispatcher = this.eventDispatcher;
+        if (null != eventDispatcher) { eventDispatcher.removed(key, cacheValue.peekValue(), cause); }
+    }
+
+    /**
+     * Will be called after an entry was removed from the map, subclasses
+     * can override it to keep their own bookkeeping in sync.
+     * @param key        Key of the removed entry
+     * @param cacheValue CacheValue of the removed entry
+     * @param cause      Reason for the removal
+     */
+    protected void onRemoval(final K key, final CacheValue<V> cacheValue, final RemovalCause cause) { }
+
+    protected boolean isExpired(final long now, final CacheValue<V> cacheValue) { return now > cacheValue.getOutdatedAt(); }
+
+    protected CacheValue<V> createCacheValue(final V value, final long outdatedAt) { return new CacheValue<>(value, outdatedAt); }
+
+    /**
+     * Returns the current second of the clock of this cache which stands still while
+     * the application is paused between a checkpoint and the restore. All deadlines
+     * of the entries are seconds of this clock.
+     */
+    protected long now() { return currentSecond() - pausedSeconds; }
+
+    // Use currentTimeMillis() instead of Instant.now() to not allocate on every read
+    private static long currentSecond() { return System.currentTimeMillis() / 1000; }
 
 
     // ******************** Internal classes **********************************
     public class CacheValue<V> {
-        private V    value;
-        private long outdatedAt;
+        private volatile V    value;
+        private volatile long outdatedAt;
+        private volatile long scheduledAt;
 
 
         // ******************** Constructors **********************************
@@ -130,12 +522,33 @@ public class GenericCache<K, V> implements Resource, Cache<K, V> {
 
         // ******************** Methods ***************************************
         public V getValue() {
-            outdatedAt += cacheTimeout;
+            if (ExpiryPolicy.AFTER_ACCESS == expiryPolicy) { touch(now()); }
             return value;
         }
         public void setValue(final V value) { this.value = value; }
 
-        public long getOutdatedAt() { return  outdatedAt; }
+        // Returns the value without touching the expiration time
+        public V peekValue() { return value; }
+
+        public long getOutdatedAt() { return outdatedAt; }
         public void setOutdatedAt(final long outdatedAt) { this.outdatedAt = outdatedAt; }
+
+        /**
+         * Moves the expiration time to now + cacheTimeout. Because the deadline only
+         * moves forward, a concurrent touch can never replace a later deadline with an
+         * earlier one. Reads within the same second will not write at all.
+         * @param now Current second
+         */
+        public void touch(final long now) {
+            final long deadline = now + cacheTimeout;
+            long       current  = (long) OUTDATED_AT.getOpaque(this);
+            while (deadline > current) {
+                if (OUTDATED_AT.compareAndSet(this, current, deadline)) { return; }
+                current = (long) OUTDATED_AT.getOpaque(this);
+            }
+        }
+
+        public long getScheduledAt() { return scheduledAt; }
+        public void setScheduledAt(final long scheduledAt) { this.scheduledAt = scheduledAt; }
     }
 }
@@ -0,0 +1,449 @@
+package eu.hansolo.crac4;
+
+import jdk.crac.*;
+//import org.crac.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+
+/**
+ * The LongBooleanCache is a cache that is specialized for primitive long keys
+ * and boolean values (e.g. the results of the prime check in Main).
+ * Instead of a ConcurrentHashMap with boxed keys and a CacheValue per entry it uses
+ * one long array with open addressing (linear probing) where each slot consists of
+ * two longs, the key and the state. The state packs the second in which the entry
+ * will be outdated and the value ((outdatedAt << 1) | value), a state of 0 marks
+ * an empty slot.
+ * Lookups use an optimistic read of a StampedLock and getOrCompute() does not
+ * allocate anything on a hit, a miss is computed only once for concurrent callers
+ * of the same key. With ExpiryPolicy.AFTER_ACCESS the expiration time of an entry
+ * that is read will be set to now + cacheTimeout with a CAS under the read lock and
+ * only if it moved at least one second.
+ * Inserts, removes and clean() take the write lock, clean() scans the table in
+ * chunks so that readers are not blocked for the whole scan.
+ */
+public class LongBooleanCache implements Resource, Cache<Long, Boolean> {
+    public    static final int                                   DEFAULT_CAPACITY = 1 << 17;
+    private   static final int                                   CLEAN_CHUNK      = 4096;
+    private   static final float                                 LOAD_FACTOR      = 0.5f;
+    private   static final VarHandle                             SLOT             = MethodHandles.arrayElementVarHandle(long[].class);
+    private   final        StampedLock                           lock;
+    private   final        Map<Long, CompletableFuture<Boolean>> loads;
+    private   final        CacheStats                            stats;
+    private   volatile     long                                  cacheTimeout;
+    private   final        ExpiryPolicy                          expiryPolicy;
+    private   final        int                                   initialCapacity;
+    private   final        MaintenanceScheduler.Maintenance      maintenance;
+    private   volatile     long[]                                table;
+    private                int                                   size;
+    private                long                                  checkpointAt;
+    private   volatile     long                                  pausedSeconds;
+
+
+    // ******************** Constructors **************************************
+    public LongBooleanCache() {
+        this(GenericCache.DEFAULT_CACHE_DELAY, GenericCache.DEFAULT_CACHE_TIMEOUT);
+    }
+    public LongBooleanCache(final long initialDelay, final long cacheTimeout) {
+        this(initialDelay, cacheTimeout, DEFAULT_CAPACITY);
+    }
+    public LongBooleanCache(final long initialDelay, final long cacheTimeout, final int initialCapacity) {
+        this(initialDelay, cacheTimeout, ExpiryPolicy.AFTER_ACCESS, initialCapacity);
+    }
+    public LongBooleanCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final int initialCapacity) {
+        this.lock            = new StampedLock();
+        this.loads           = new ConcurrentHashMap<>();
+        this.stats           = new CacheStats(() -> size());
+        this.cacheTimeout    = cacheTimeout;
+        this.expiryPolicy    = expiryPolicy;
+        this.initialCapacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        this.clear();
+
+        // Register this class as resource in the global context of CRaC
+        final Timeline.Span registration = Timeline.INSTANCE.begin(TimelinePhase.REGISTRATION, "LongBooleanCache");
+        System.out.println("Register Resource: LongBooleanCache");
+        Core.getGlobalContext().register(LongBooleanCache.this);
+        registration.end();
+
+        // The shared MaintenanceScheduler calls clean() every second
+        this.maintenance = MaintenanceScheduler.INSTANCE.register(LongBooleanCache.this, initialDelay);
+    }
+
+
+    // ******************** CRaC Methods **************************************
+    @Override public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        System.out.println("beforeCheckpoint() called in LongBooleanCache");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.BEFORE_CHECKPOINT, "LongBooleanCache");
+        checkpointAt = currentSecond();
+        // Free resources or stop services
+        maintenance.pause();
+        span.end();
+    }
+
+    @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
+        System.out.println("afterRestore() called in LongBooleanCache");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.AFTER_RESTORE, "LongBooleanCache");
+        // Take pause time into account for cached values by setting back the clock of the cache
+        pausedSeconds += currentSecond() - checkpointAt;
+
+        // Restore resources or re-start services
+        maintenance.resume();
+        span.end();
+    }
+
+
+    // ******************** Primitive Methods *********************************
+    /**
+     * Returns the cached value for the given key or computes it with the given
+     * function and puts it in the cache. A hit does not allocate any objects.
+     * The function will be called outside of the lock, concurrent callers for the
+     * same key will wait for the result of the thread that computes it.
+     * @param key      Key
+     * @param function Function that computes the value if the key is not cached
+     * @return the cached or computed value for the given key
+     */
+    public boolean getOrCompute(final long key, final LongPredicate function) {
+        final long now   = now();
+        final long state = lookup(key, now);
+        if (0 != state) {
+            stats.recordHit();
+            return (state & 1L) == 1L;
+        }
+        stats.recordMiss();
+        final CompletableFuture<Boolean> future   = new CompletableFuture<>();
+        final CompletableFuture<Boolean> inFlight = loads.putIfAbsent(key, future);
+        if (null != inFlight) { return await(inFlight); }
+        try {
+            final long    loaded = lookup(key, now);
+            final boolean value;
+            if (0 == loaded) {
+                final long start = System.nanoTime();
+                try {
+                    value = function.test(key);
+                } catch (RuntimeException | Error e) {
+                    stats.recordLoadFailure(System.nanoTime() - start);
+                    throw e;
+                }
+                stats.recordLoad(System.nanoTime() - start);
+                put(key, value, now);
+            } else {
+                value = (loaded & 1L) == 1L;
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, future);
+        }
+    }
+
+    public boolean containsKey(final long key) { return 0 != lookup(key, now()); }
+
+    public void put(final long key, final boolean value) { put(key, value, now()); }
+
+    public void remove(final long key) {
+        final long stamp = lock.writeLock();
+        try {
+            final long[] tab   = table;
+            final int    index = indexOf(tab, key);
+            if (index >= 0) {
+                delete(tab, index);
+                stats.recordRemoval(RemovalCause.EXPLICIT);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+
+    // ******************** Cache Methods *************************************
+    @Override public boolean containsKey(final Long key) { return containsKey(key.longValue()); }
+
+    @Override public Optional<Boolean> get(final Long key) {
+        final long state = lookup(key, now());
+        if (0 == state) {
+            stats.recordMiss();
+            return Optional.empty();
+        }
+        stats.recordHit();
+        return Optional.of((state & 1L) == 1L);
+    }
+
+    @Override public void put(final Long key, final Boolean value) { put(key.longValue(), value.booleanValue()); }
+
+    /**
+     * Puts all given entries with one write lock instead of one per entry.
+     */
+    @Override public void putAll(final Map<? extends Long, ? extends Boolean> entries) {
+        final long now   = now();
+        final long stamp = lock.writeLock();
+        try {
+            for (Map.Entry<? extends Long, ? extends Boolean> entry : entries.entrySet()) {
+                insert(entry.getKey().longValue(), stateOf(entry.getValue().booleanValue(), now));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        maintenance.afterWrite();
+    }
+
+    @Override public Boolean getOrCompute(final Long key, final Function<? super Long, ? extends Boolean> function) {
+        return getOrCompute(key.longValue(), k -> function.apply(k));
+    }
+
+    @Override public void remove(final Long key) { remove(key.longValue()); }
+
+    @Override public void clear() {
+        final long stamp = lock.writeLock();
+        try {
+            table = new long[initialCapacity << 1];
+            size  = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override public void clean() {
+        final long now       = now();
+        final long cleanedAt = System.nanoTime();
+        long       scanned   = 0;
+        for (int start = 1 ; ; start += CLEAN_CHUNK << 1) {
+            final long stamp = lock.writeLock();
+            try {
+                final long[] tab = table;
+                if (start >= tab.length) {
+                    stats.recordClean(System.nanoTime() - cleanedAt, scanned);
+                    return;
+                }
+                final int end = Math.min(tab.length, start + (CLEAN_CHUNK << 1));
+                int i = start;
+                while (i < end) {
+                    final long state = tab[i];
+                    scanned++;
+                    if (0 != state && now > (state >>> 1)) {
+                        // After the delete another entry might have been shifted into this slot
+                        delete(tab, i - 1);
+                        stats.recordRemoval(RemovalCause.EXPIRED);
+                    } else {
+                        i += 2;
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override public CacheStats getStats() { return stats; }
+
+    public long getCacheTimeout() { return cacheTimeout; }
+    /**
+     * Changes the cache timeout at runtime. The new timeout will be used for entries
+     * that are written (or read with AFTER_ACCESS) afterwards, expiration times of
+     * existing entries will not be shortened.
+     * @param cacheTimeout Timeout in seconds
+     */
+    public void setCacheTimeout(final long cacheTimeout) {
+        if (cacheTimeout < 1) { throw new IllegalArgumentException("cacheTimeout must be > 0"); }
+        this.cacheTimeout = cacheTimeout;
+    }
+
+    // Package private for the ExpiryStressTest, returns -1 if the key is not in the cache
+    long getOutdatedAt(final long key) {
+        final long stamp = lock.readLock();
+        try {
+            final long[] tab   = table;
+            final int    index = indexOf(tab, key);
+            return index < 0 ? -1 : (long) SLOT.getVolatile(tab, index + 1) >>> 1;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override public int size() {
+        final long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+
+    // ******************** Internal Methods **********************************
+    /**
+     * Returns the state of the given key or 0 if the key is not cached or outdated.
+     * If the key is found and the ExpiryPolicy is AFTER_ACCESS it's expiration time
+     * will be extended to now + cacheTimeout.
+     */
+    private long lookup(final long key, final long now) {
+        long   stamp = lock.tryOptimisticRead();
+        long[] tab   = table;
+        int    index = indexOf(tab, key);
+        long   state = index < 0 ? 0 : (long) SLOT.getOpaque(tab, index + 1);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                tab   = table;
+                index = indexOf(tab, key);
+                state = index < 0 ? 0 : tab[index + 1];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (0 == state) { return 0; }
+        final long outdatedAt = state >>> 1;
+        if (now > outdatedAt) { return 0; }
+        if (ExpiryPolicy.AFTER_WRITE == expiryPolicy) { return state; }
+        final long touchedAt = now + cacheTimeout;
+        if (touchedAt > outdatedAt) { touch(key, touchedAt); }
+        return state;
+    }
+
+    /**
+     * Moves the expiration time of the given key forward to the given second.
+     * Runs under the read lock, so that the slot can neither be deleted, shifted nor
+     * copied by a resize while the CAS loop runs, which would lose the touch or move
+     * the deadline of another key that was shifted into the slot. Concurrent touches
+     * of the same key only retry as long as they move the deadline further, so the
+     * deadline never goes backwards. The lock is only taken if the deadline moves,
+     * which happens at most once per second and key.
+     */
+    private void touch(final long key, final long touchedAt) {
+        final long stamp = lock.readLock();
+        try {
+            final long[] tab   = table;
+            final int    index = indexOf(tab, key);
+            if (index < 0) { return; }
+            long state = (long) SLOT.getVolatile(tab, index + 1);
+            while (touchedAt > (state >>> 1)) {
+                if (SLOT.compareAndSet(tab, index + 1, state, (touchedAt << 1) | (state & 1L))) { return; }
+                state = (long) SLOT.getVolatile(tab, index + 1);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void put(final long key, final boolean value, final long now) {
+        final long stamp = lock.writeLock();
+        try {
+            insert(key, stateOf(value, now));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        // Outside of the lock because clean() takes the write lock itself
+        maintenance.afterWrite();
+    }
+
+    /**
+     * Inserts or updates the given key, the caller has to hold the write lock.
+     */
+    private void insert(final long key, final long state) {
+        final long[] tab   = table;
+        final int    mask  = tab.length - 2;
+        int          index = slotOf(key, mask);
+        while (0 != tab[index + 1]) {
+            if (tab[index] == key) {
+                tab[index + 1] = state;
+                return;
+            }
+            index = (index + 2) & mask;
+        }
+        tab[index]     = key;
+        tab[index + 1] = state;
+        size++;
+        if (size > (tab.length >> 1) * LOAD_FACTOR) { resize(tab); }
+    }
+
+    private long stateOf(final boolean value, final long now) { return ((now + cacheTimeout) << 1) | (value ? 1L : 0L); }
+
+    /**
+     * Returns the index of the slot that holds the given key or -1.
+     * Might be called on a table that is modified concurrently (optimistic read),
+     * that's why the number of probes is limited to the number of slots.
+     */
+    private static int indexOf(final long[] tab, final long key) {
+        final int mask  = tab.length - 2;
+        int       index = slotOf(key, mask);
+        for (int probes = tab.length >> 1 ; probes > 0 ; probes--) {
+            if (0 == tab[index + 1]) { return -1; }
+            if (tab[index] == key)   { return index; }
+            index = (index + 2) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the slot at the given index and shifts following entries of the
+     * same probe sequence backwards so that no tombstones are needed.
+     */
+    private void delete(final long[] tab, final int index) {
+        final int mask = tab.length - 2;
+        int hole = index;
+        int next = (hole + 2) & mask;
+        while (0 != tab[next + 1]) {
+            final int home = slotOf(tab[next], mask);
+            // Move the entry into the hole if the hole lies between it's home slot and it's current slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                tab[hole]     = tab[next];
+                tab[hole + 1] = tab[next + 1];
+                hole          = next;
+            }
+            next = (next + 2) & mask;
+        }
+        tab[hole]     = 0;
+        tab[hole + 1] = 0;
+        size--;
+    }
+
+    private void resize(final long[] oldTab) {
+        final long[] newTab = new long[oldTab.length << 1];
+        final int    mask   = newTab.length - 2;
+        for (int i = 0 ; i < oldTab.length ; i += 2) {
+            if (0 == oldTab[i + 1]) { continue; }
+            int index = slotOf(oldTab[i], mask);
+            while (0 != newTab[index + 1]) { index = (index + 2) & mask; }
+            newTab[index]     = oldTab[i];
+            newTab[index + 1] = oldTab[i + 1];
+        }
+        table = newTab;
+    }
+
+    private static int slotOf(final long key, final int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        return ((int) h << 1) & mask;
+    }
+
+    private static boolean await(final CompletableFuture<Boolean> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) { throw runtimeException; }
+            if (e.getCause() instanceof Error error) { throw error; }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the current second of the clock of this cache which stands still while
+     * the application is paused between a checkpoint and the restore.
+     * Protected so that the ExpiryStressTest can drive the clock.
+     */
+    protected long now() { return currentSecond() - pausedSeconds; }
+
+    // Use currentTimeMillis() instead of Instant.now() to not allocate on the hot path
+    private static long currentSecond() { return System.currentTimeMillis() / 1000; }
+}
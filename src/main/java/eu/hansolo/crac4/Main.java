@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -15,7 +16,10 @@ import java.util.Locale;
 import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
 import java.util.function.Predicate;
 
 
@@ -34,6 +38,11 @@ import java.util.function.Predicate;
  * To make that work correctly you will find some code in the afterRestore() method
  * in the GenericCache that takes the time between the checkpoint and the restore into
  * account.
+ * Changes of interval and cache_timeout in the crac4.properties file will be applied
+ * without a restart if properties_reload is true and after every restore.
+ * The Timeline records the phases of the startup, the checkpoint and the restore
+ * (e.g. the time to the first cache hit after a restore) as JFR events and writes
+ * a JSON summary if timeline is true.
  *
  * Log compilation:
  * java -Xmx256m -XX:MaxRAMPercentage=75 -XX:+UseParallelGC -XX:CRaCCheckpointTo=/home/hansolo/crac-files -XX:+UnlockDiagnosticVMOptions -XX:+LogCompilation -jar build/libs/crac4-17.0.0.jar
@@ -41,14 +50,21 @@ import java.util.function.Predicate;
  */
 public class Main implements Resource {
     public static final  int                         DEFAULT_INTERVAL = 5;
+    public static final  int                         MAX_NUMBER       = 100_000;
     private static final Random                      RND              = new Random();
     private static final String                      CRAC_FILES       = System.getProperty("user.home") + File.separator + "crac-files";
     private static final DateTimeFormatter           FORMATTER        = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
-    private final        GenericCache<Long, Boolean> primeCache;
+    private static final LongPredicate               PRIME_FUNCTION   = Main::calcPrime;
+    private static final Function<Long, Boolean>     PRIME_LOADER     = Main::calcPrime;
+    private final        Cache<Long, Boolean>        primeCache;
+    private final        PrimeSieve                  primeSieve;
+    private final        WarmupController            warmupController;
     private              int                         counter;
     private              Runnable                    task;
     private              ScheduledExecutorService    executorService;
+    private              ScheduledFuture<?>          scheduledTask;
     private              long                        start;
+    private              boolean                     firstRun;
 
 
     // ******************** Constructor ***************************************
@@ -68,21 +84,41 @@ public class Main implements Resource {
             System.out.println("App stopped in shutdown hook");
         }));
 
-        final long initialCleanDelay = PropertyManager.INSTANCE.getLong(Constants.INITIAL_CACHE_CLEAN_DELAY, 50);
-        final long cacheTimeout      = PropertyManager.INSTANCE.getLong(Constants.CACHE_TIMEOUT, 12);
+        final Timeline.Span properties = Timeline.INSTANCE.begin(TimelinePhase.PROPERTIES, "PropertyManager");
+        final Config        config     = PropertyManager.INSTANCE.getConfig();
+        properties.end();
 
-        primeCache      = new GenericCache<>(initialCleanDelay, cacheTimeout);
-        counter         = 1;
-        task            = () -> checkForPrimes();
-        executorService = Executors.newSingleThreadScheduledExecutor();
-        start           = System.nanoTime();
+        final Timeline.Span cache = Timeline.INSTANCE.begin(TimelinePhase.CACHE, "primeCache");
+        primeCache      = createPrimeCache(config);
+        primeCache.getStats().registerMXBean("primeCache");
+        if (primeCache instanceof GenericCache<Long, Boolean> genericCache && config.isSnapshot()) {
+            // Warm start from the last snapshot and write a new one when the app stops
+            final Path snapshotFile = Paths.get(config.getSnapshotFile());
+            genericCache.enableSnapshots(snapshotFile, Codec.LONG, Codec.BOOLEAN, config.isSnapshotDrop());
+            genericCache.loadSnapshot();
+            runtime.addShutdownHook(new Thread(() -> genericCache.saveSnapshot()));
+        }
+        cache.end();
+        primeSieve       = createPrimeSieve(config);
+        warmupController = createWarmupController(config);
+        counter          = 1;
+        task             = () -> checkForPrimes();
+        executorService  = Executors.newSingleThreadScheduledExecutor();
+        start            = System.nanoTime();
+        firstRun         = true;
 
         // Register this class as resource in the global context of CRaC
+        final Timeline.Span registration = Timeline.INSTANCE.begin(TimelinePhase.REGISTRATION, "Main");
         System.out.println("Register Resource: Main");
         Core.getGlobalContext().register(Main.this);
+        registration.end();
+
+        primeCache.getStats().onNextHit(() -> Timeline.INSTANCE.mark(TimelinePhase.FIRST_CACHE_HIT, "primeCache"));
+
+        // Apply changes of the properties file at runtime
+        PropertyManager.INSTANCE.addConfigListener((oldConfig, newConfig) -> onConfigChanged(oldConfig, newConfig));
 
-        final long interval = PropertyManager.INSTANCE.getLong(Constants.INTERVAL, 5);
-        executorService.scheduleAtFixedRate(task, 0, interval, TimeUnit.SECONDS);
+        schedule(0, config.getInterval());
     }
 
 
@@ -91,33 +127,132 @@ public class Main implements Resource {
         System.out.println("Application warmup time: " + ((System.nanoTime() - start) / 1_000_000_000) + " sec");
 
         System.out.println("beforeCheckpoint() called in Main");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.BEFORE_CHECKPOINT, "Main");
         // Free resources or stop services
-        executorService.shutdown();
-        executorService.awaitTermination(5, TimeUnit.SECONDS);
-        executorService = null;
+        synchronized (this) {
+            executorService.shutdown();
+            executorService.awaitTermination(5, TimeUnit.SECONDS);
+            executorService = null;
+            scheduledTask   = null;
+        }
+        span.end();
     }
 
     @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
         System.out.println("afterRestore() called in Main");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.AFTER_RESTORE, "Main");
         // Restore resources or re-start services
-        final long interval = PropertyManager.INSTANCE.getLong(Constants.INTERVAL, 5);
-        executorService = Executors.newSingleThreadScheduledExecutor();
-        executorService.scheduleAtFixedRate(task, 0, interval, TimeUnit.SECONDS);
+        synchronized (this) {
+            executorService = Executors.newSingleThreadScheduledExecutor();
+        }
+        firstRun = true;
+        primeCache.getStats().onNextHit(() -> Timeline.INSTANCE.mark(TimelinePhase.FIRST_CACHE_HIT, "primeCache"));
+        // The PropertyManager might have reloaded the properties already, changes after this call will be applied by the listener
+        schedule(0, PropertyManager.INSTANCE.getConfig().getInterval());
+        span.end();
+    }
+
+    private synchronized void schedule(final long initialDelay, final long interval) {
+        // Will be scheduled again in afterRestore()
+        if (null == executorService) { return; }
+        if (interval < 1) {
+            System.out.println("Invalid interval " + interval + ", keeping the current interval");
+            return;
+        }
+        if (null != scheduledTask) { scheduledTask.cancel(false); }
+        scheduledTask = executorService.scheduleAtFixedRate(task, initialDelay, interval, TimeUnit.SECONDS);
+    }
+
+    private void onConfigChanged(final Config oldConfig, final Config newConfig) {
+        if (oldConfig.getInterval() != newConfig.getInterval()) {
+            System.out.println("Changing interval to " + newConfig.getInterval() + " sec");
+            schedule(newConfig.getInterval(), newConfig.getInterval());
+        }
+        if (oldConfig.getCacheTimeout() != newConfig.getCacheTimeout()) {
+            System.out.println("Changing cache timeout to " + newConfig.getCacheTimeout() + " sec");
+            setCacheTimeout(newConfig.getCacheTimeout());
+        }
+    }
+
+    private void setCacheTimeout(final long cacheTimeout) {
+        if (cacheTimeout < 1) {
+            System.out.println("Invalid cache timeout " + cacheTimeout + ", keeping the current timeout");
+        } else if (primeCache instanceof GenericCache<Long, Boolean> genericCache) {
+            genericCache.setCacheTimeout(cacheTimeout);
+        } else if (primeCache instanceof LongBooleanCache longBooleanCache) {
+            longBooleanCache.setCacheTimeout(cacheTimeout);
+        } else if (primeCache instanceof TieredCache<Long, Boolean> tieredCache) {
+            // The second tier has it's own timeout (offheap_cache_timeout)
+            tieredCache.getFirstTier().setCacheTimeout(cacheTimeout);
+        } else if (primeCache instanceof ShardedCache<Long, Boolean> shardedCache) {
+            shardedCache.setCacheTimeout(cacheTimeout);
+        } else if (primeCache instanceof SharedCache<Boolean> sharedCache) {
+            sharedCache.setCacheTimeout(cacheTimeout);
+        }
+    }
+
+    private Cache<Long, Boolean> createPrimeCache(final Config config) {
+        final CacheType    cacheType         = config.getCacheType();
+        final ExpiryPolicy expiryPolicy      = config.getCacheExpiry();
+        System.out.println("Using cache type: " + cacheType + " (" + expiryPolicy + ")");
+        final long         initialCleanDelay = config.getInitialCacheCleanDelay();
+        final long         cacheTimeout      = config.getCacheTimeout();
+        final long         maximumSize       = config.getCacheMaximumSize();
+        return switch (cacheType) {
+            case BOUNDED   -> new BoundedCache<>(initialCleanDelay, cacheTimeout, expiryPolicy, maximumSize, Weigher.singleton());
+            case PRIMITIVE -> new LongBooleanCache(initialCleanDelay, cacheTimeout, expiryPolicy, LongBooleanCache.DEFAULT_CAPACITY);
+            case TIERED    -> new TieredCache<>(initialCleanDelay, cacheTimeout, expiryPolicy, maximumSize,
+                                                config.getOffHeapCacheTimeout(), config.getOffHeapCapacity(), Codec.BOOLEAN);
+            case SHARDED   -> new ShardedCache<>(initialCleanDelay, cacheTimeout, expiryPolicy, config.getCacheShards());
+            case SHARED    -> new SharedCache<>(Paths.get(config.getSharedFile()), cacheTimeout, expiryPolicy, config.getSharedCapacity(),
+                                                Codec.BOOLEAN.size(Boolean.TRUE), Codec.BOOLEAN);
+            default        -> new GenericCache<>(initialCleanDelay, cacheTimeout, expiryPolicy);
+        };
+    }
+
+    private PrimeSieve createPrimeSieve(final Config config) {
+        final PrimeEngine primeEngine = config.getPrimeEngine();
+        System.out.println("Using prime engine: " + primeEngine);
+        return PrimeEngine.SIEVE == primeEngine ? new PrimeSieve(MAX_NUMBER) : null;
+    }
+
+    private WarmupController createWarmupController(final Config config) {
+        if (!config.isAutoCheckpoint()) { return null; }
+        // A bounded cache will never hold more than it's maximum size
+        final long expectedSize = primeCache instanceof BoundedCache<Long, Boolean> boundedCache ? Math.min(MAX_NUMBER, boundedCache.getMaximumWeight()) : MAX_NUMBER;
+        return new WarmupController(primeCache, expectedSize, config.getWarmupFillRatio(), config.getWarmupHitRate(), config.getWarmupJitQuietPeriod());
     }
 
     private void checkForPrimes() {
+        // The first run after the start or the restore ends the timeline
+        final Timeline.Span span = firstRun ? Timeline.INSTANCE.begin(TimelinePhase.FIRST_RUN, "Main") : null;
+        firstRun = false;
         long start = System.nanoTime();
-        for (long i = 1 ; i <= 100_000 ; i++) {
-            isPrime(RND.nextInt(100_000));
+        if (null == primeSieve) {
+            for (long i = 1 ; i <= MAX_NUMBER ; i++) {
+                isPrime(RND.nextInt(MAX_NUMBER));
+            }
+        } else {
+            // Check all numbers in parallel and put the results in the cache in bulk
+            final long[] numbers = new long[MAX_NUMBER];
+            for (int i = 0 ; i < MAX_NUMBER ; i++) { numbers[i] = RND.nextInt(MAX_NUMBER); }
+            primeSieve.checkAll(numbers, primeCache);
         }
         //System.out.println(FORMATTER.format(LocalDateTime.now()) + " " + counter + ". Run: " + ((System.nanoTime() - start) / 1_000_000 + " ms (" + primeCache.size() + " elements cached, " + String.format(Locale.US, "%.1f%%", primeCache.size() / 1_000.0) + ")"));
-        System.out.println(counter + ". Run: " + ((System.nanoTime() - start) / 1_000_000 + " ms (" + primeCache.size() + " elements cached, " + String.format(Locale.US, "%.1f%%", primeCache.size() / 1_000.0) + ")"));
+        System.out.println(counter + ". Run: " + ((System.nanoTime() - start) / 1_000_000 + " ms (" + primeCache.size() + " elements cached, " + String.format(Locale.US, "%.1f%%", primeCache.size() / 1_000.0) + ", hit rate " + String.format(Locale.US, "%.1f%%", primeCache.getStats().getHitRate() * 100) + ")"));
         counter++;
+        if (null != span) { span.end(); }
+        if (null != warmupController) { warmupController.check(); }
     }
 
     private boolean isPrime(final long number) {
         if (number < 1) { return false; }
-        if (primeCache.containsKey(number)) { return primeCache.get(number).get(); }
+        // The primitive cache neither boxes the key nor allocates on a hit
+        if (primeCache instanceof LongBooleanCache longBooleanCache) { return longBooleanCache.getOrCompute(number, PRIME_FUNCTION); }
+        return primeCache.getOrCompute(number, PRIME_LOADER);
+    }
+
+    static boolean calcPrime(final long number) {
         boolean isPrime = true;
         for (long n = number ; n > 0 ; n--) {
             if (n != number && n != 1 && number % n == 0) {
@@ -125,12 +260,11 @@ public class Main implements Resource {
                 break;
             }
         }
-        primeCache.put(number, isPrime);
         return isPrime;
     }
 
     private void cleanCracFilesFolder() {
-        if (PropertyManager.INSTANCE.getBoolean(Constants.CLEANUP)) {
+        if (PropertyManager.INSTANCE.getConfig().isCleanup()) {
             System.out.println("\nCleanup " + CRAC_FILES);
             File cracFiles = new File(CRAC_FILES);
             if (null != cracFiles && cracFiles.exists() && cracFiles.isDirectory()) {
@@ -145,6 +279,7 @@ public class Main implements Resource {
         long currentTime = System.currentTimeMillis();
         long vmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
         System.out.println("JVM startup time: " + (currentTime - vmStartTime) + "ms");
+        Timeline.INSTANCE.jvmStarted();
 
         Runtime runtime = Runtime.getRuntime();
         System.out.println(FORMATTER.format(LocalDateTime.now()) + " Starting application");
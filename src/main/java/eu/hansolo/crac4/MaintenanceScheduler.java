@@ -0,0 +1,197 @@
+package eu.hansolo.crac4;
+
+import jdk.crac.*;
+//import org.crac.*;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The MaintenanceScheduler calls clean() of all registered caches with one
+ * shared daemon thread instead of one thread per cache.
+ * Every second it visits the caches round robin until either all of them are
+ * done or the time budget of the run is used up, the remaining caches will be
+ * visited first in the next run. A cache that is written to frequently does not
+ * have to wait for the scheduler, the first write in a new second runs clean()
+ * in the writing thread if no other thread is cleaning the cache already.
+ * The scheduler stops its thread before a checkpoint and starts it again after
+ * the restore. Because the order in which CRaC notifies the resources is not
+ * known, every cache pauses its own maintenance in beforeCheckpoint() and resumes
+ * it in afterRestore() once its clock has been adjusted.
+ * The caches are only weakly referenced, caches that are no longer used will
+ * be removed from the scheduler automatically.
+ */
+public enum MaintenanceScheduler implements Resource {
+    INSTANCE;
+
+    public  static final long                     INTERVAL    = 1;
+    private static final long                     TIME_BUDGET = 200_000_000; // nanoseconds per run
+    private final        List<Maintenance>        registrations;
+    private              ScheduledExecutorService executorService;
+    private              int                      cursor;
+
+
+    // ******************** Constructors **************************************
+    MaintenanceScheduler() {
+        registrations = new CopyOnWriteArrayList<>();
+
+        // Register this class as resource in the global context of CRaC
+        final Timeline.Span registration = Timeline.INSTANCE.begin(TimelinePhase.REGISTRATION, "MaintenanceScheduler");
+        System.out.println("Register Resource: MaintenanceScheduler");
+        Core.getGlobalContext().register(MaintenanceScheduler.this);
+        registration.end();
+
+        start();
+    }
+
+
+    // ******************** CRaC Methods **************************************
+    @Override public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        System.out.println("beforeCheckpoint() called in MaintenanceScheduler");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.BEFORE_CHECKPOINT, "MaintenanceScheduler");
+        // Free resources or stop services
+        stop();
+        span.end();
+    }
+
+    @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
+        System.out.println("afterRestore() called in MaintenanceScheduler");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.AFTER_RESTORE, "MaintenanceScheduler");
+        // Restore resources or re-start services
+        start();
+        span.end();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Registers the given cache, it's clean() method will be called every second
+     * starting after the given initial delay.
+     * @param cache        Cache to maintain
+     * @param initialDelay Delay in seconds before the first call to clean()
+     * @return the Maintenance of the cache that is used to pause, resume and cancel it
+     */
+    public Maintenance register(final Cache<?, ?> cache, final long initialDelay) {
+        final Maintenance maintenance = new Maintenance(cache, now() + initialDelay);
+        registrations.add(maintenance);
+        return maintenance;
+    }
+
+    public int getNoOfRegistrations() { return registrations.size(); }
+
+    private synchronized void start() {
+        if (null != executorService) { return; }
+        executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "crac4-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executorService.scheduleAtFixedRate(() -> runMaintenance(), INTERVAL, INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private synchronized void stop() throws InterruptedException {
+        if (null == executorService) { return; }
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+        executorService = null;
+    }
+
+    private void runMaintenance() {
+        final Maintenance[] snapshot = registrations.toArray(new Maintenance[0]);
+        if (0 == snapshot.length) { return; }
+        final long now      = now();
+        final long deadline = System.nanoTime() + TIME_BUDGET;
+        // Continue with the cache that was not visited in the last run because the time budget was used up
+        int index = cursor % snapshot.length;
+        for (int i = 0 ; i < snapshot.length && System.nanoTime() < deadline ; i++) {
+            try {
+                snapshot[index].run(now);
+            } catch (RuntimeException e) {
+                // Exceptions would stop the scheduled task
+                System.out.println("Error cleaning cache. " + e);
+            }
+            index = (index + 1) % snapshot.length;
+        }
+        cursor = index;
+    }
+
+    private static long now() { return System.currentTimeMillis() / 1000; }
+
+
+    // ******************** Internal classes **********************************
+    /**
+     * The Maintenance of one cache. The lock makes sure that clean() is never
+     * called by the scheduler and a writing thread at the same time.
+     */
+    public static final class Maintenance {
+        private final    WeakReference<Cache<?, ?>> cache;
+        private final    ReentrantLock              lock;
+        private final    long                       startAt;
+        private volatile long                       lastRunAt;
+        private volatile boolean                    paused;
+        private volatile boolean                    cancelled;
+
+
+        // ******************** Constructors **********************************
+        private Maintenance(final Cache<?, ?> cache, final long startAt) {
+            this.cache     = new WeakReference<>(cache);
+            this.lock      = new ReentrantLock();
+            this.startAt   = startAt;
+            this.lastRunAt = startAt - 1;
+        }
+
+
+        // ******************** Methods ***************************************
+        /**
+         * Should be called after a write (outside of any lock that clean() needs)
+         * to clean the cache in the writing thread if it is due.
+         */
+        public void afterWrite() {
+            final long now = now();
+            if (isDue(now)) { run(now); }
+        }
+
+        /**
+         * Stops calling clean() and waits until a running clean() is finished.
+         */
+        public void pause() {
+            paused = true;
+            lock.lock();
+            lock.unlock();
+        }
+
+        public void resume() { paused = false; }
+
+        public void cancel() {
+            cancelled = true;
+            INSTANCE.registrations.remove(this);
+        }
+
+        public boolean isPaused() { return paused; }
+
+        private boolean isDue(final long now) { return !paused && !cancelled && now > lastRunAt; }
+
+        private void run(final long now) {
+            if (!isDue(now) || !lock.tryLock()) { return; }
+            try {
+                // Check again, another thread might have cleaned the cache in the meantime
+                if (!isDue(now)) { return; }
+                final Cache<?, ?> maintained = cache.get();
+                if (null == maintained) {
+                    cancel();
+                    return;
+                }
+                lastRunAt = now;
+                maintained.clean();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
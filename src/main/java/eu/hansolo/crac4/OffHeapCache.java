@@ -0,0 +1,611 @@
+package eu.hansolo.crac4;
+
+import jdk.crac.*;
+//import org.crac.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+
+
+/**
+ * The OffHeapCache is an implementation of the Cache interface that keeps the
+ * values outside of the Java heap in direct ByteBuffers, so that large values
+ * neither have to be traced by the garbage collector nor inflate the heap.
+ * Only the keys and the addresses of the values stay on the heap.
+ * The cache is split into segments with their own lock. Each segment manages it's
+ * memory with a slab allocator: memory is allocated in slabs of 1 MB which are cut
+ * into chunks of one size class (powers of two from 16 bytes up to 1 MB). Freed
+ * chunks go back to the free list of their size class.
+ * A chunk contains the second in which the entry will be outdated (long), the length
+ * of the encoded value (int) and the value encoded by the given Codec.
+ * Every segment keeps one LRU list per size class. If a segment reached it's capacity,
+ * the head of the LRU list of the same size class will be evicted. If there is no
+ * entry of that size class, the slab of the least recently used entry (the oldest
+ * head of all LRU lists) will be emptied and assigned to the size class. Each slab
+ * knows the entries in it's chunks, so neither of both has to scan the index.
+ * Expired entries are found by a timer wheel per segment, a clean-up run only visits
+ * the entries that are due. It works like the TimerWheel but the buckets are linked
+ * through the entries, so removed entries leave the wheel right away instead of
+ * staying in their bucket until it is due.
+ * Values that are larger than a slab will not be cached, such puts are counted as
+ * rejected in the stats.
+ * @param <K> Key
+ * @param <V> Value to cache for the key
+ */
+public class OffHeapCache<K, V> implements Resource, Cache<K, V> {
+    public    static final long                             DEFAULT_CAPACITY = 64L * 1024 * 1024;
+    public    static final int                              SLAB_SIZE        = 1 << 20;
+    private   static final int                              HEADER_SIZE      = Long.BYTES + Integer.BYTES;
+    private   static final int                              MIN_CHUNK_SHIFT  = 4;
+    private   static final int                              NO_OF_CLASSES    = 20 - MIN_CHUNK_SHIFT + 1;
+    private   final        Segment[]                        segments;
+    private   final        Codec<V>                         valueCodec;
+    private   final        CacheStats                       stats;
+    private   final        long                             cacheTimeout;
+    private   final        ExpiryPolicy                     expiryPolicy;
+    private   final        MaintenanceScheduler.Maintenance maintenance;
+    private                long                             checkpointAt;
+    private   volatile     long                             pausedSeconds;
+
+
+    // ******************** Constructors **************************************
+    public OffHeapCache(final Codec<V> valueCodec) {
+        this(GenericCache.DEFAULT_CACHE_DELAY, GenericCache.DEFAULT_CACHE_TIMEOUT, DEFAULT_CAPACITY, valueCodec);
+    }
+    public OffHeapCache(final long initialDelay, final long cacheTimeout, final long capacity, final Codec<V> valueCodec) {
+        this(initialDelay, cacheTimeout, ExpiryPolicy.AFTER_ACCESS, capacity, valueCodec);
+    }
+    public OffHeapCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final long capacity, final Codec<V> valueCodec) {
+        if (capacity < SLAB_SIZE) { throw new IllegalArgumentException("capacity must be >= " + SLAB_SIZE); }
+        final int noOfSegments    = Integer.highestOneBit((int) Math.max(1, Math.min(16, capacity / (8L * SLAB_SIZE))));
+        final int slabsPerSegment = (int) Math.min(Integer.MAX_VALUE, capacity / noOfSegments / SLAB_SIZE);
+        this.valueCodec      = valueCodec;
+        this.stats           = new CacheStats(() -> size());
+        this.cacheTimeout    = cacheTimeout;
+        this.expiryPolicy    = expiryPolicy;
+        this.segments        = newSegments(noOfSegments, slabsPerSegment);
+
+        // Register this class as resource in the global context of CRaC
+        final Timeline.Span registration = Timeline.INSTANCE.begin(TimelinePhase.REGISTRATION, "OffHeapCache");
+        System.out.println("Register Resource: OffHeapCache");
+        Core.getGlobalContext().register(OffHeapCache.this);
+        registration.end();
+
+        // The shared MaintenanceScheduler calls clean() every second
+        this.maintenance = MaintenanceScheduler.INSTANCE.register(OffHeapCache.this, initialDelay);
+    }
+
+
+    // ******************** CRaC Methods **************************************
+    @Override public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        System.out.println("beforeCheckpoint() called in OffHeapCache");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.BEFORE_CHECKPOINT, "OffHeapCache");
+        checkpointAt = currentSecond();
+        // Free resources or stop services
+        maintenance.pause();
+        span.end();
+    }
+
+    @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
+        System.out.println("afterRestore() called in OffHeapCache");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.AFTER_RESTORE, "OffHeapCache");
+        // Take pause time into account for cached values by setting back the clock of the cache
+        pausedSeconds += currentSecond() - checkpointAt;
+
+        // Restore resources or re-start services
+        maintenance.resume();
+        span.end();
+    }
+
+
+    // ******************** Cache Methods *************************************
+    @Override public boolean containsKey(final K key) { return segmentFor(key).containsKey(key, now()); }
+
+    @Override public Optional<V> get(final K key) {
+        final V value = segmentFor(key).get(key, now());
+        if (null == value) { stats.recordMiss(); } else { stats.recordHit(); }
+        return Optional.ofNullable(value);
+    }
+
+    @Override public void put(final K key, final V value) {
+        final int length = valueCodec.size(value);
+        if (HEADER_SIZE + length > SLAB_SIZE) {
+            // Too large for a slab, the previous value is outdated and must not be returned anymore
+            stats.recordRejected();
+            segmentFor(key).remove(key, RemovalCause.REPLACED);
+            return;
+        }
+        segmentFor(key).put(key, value, length, now());
+        maintenance.afterWrite();
+    }
+
+    @Override public void remove(final K key) { segmentFor(key).remove(key, RemovalCause.EXPLICIT); }
+
+    @Override public void clear() {
+        for (Segment segment : segments) { segment.clear(); }
+    }
+
+    @Override public void clean() {
+        final long now     = now();
+        final long start   = System.nanoTime();
+        long       scanned = 0;
+        for (Segment segment : segments) { scanned += segment.clean(now); }
+        stats.recordClean(System.nanoTime() - start, scanned);
+    }
+
+    /**
+     * Returns the value of the given key and removes it from this cache. The removal
+     * is not recorded in the stats, it's used by the TieredCache to move an entry to
+     * the first tier, which means the entry is not gone.
+     * @param key Key of the value
+     * @return the value or Optional.empty() if there was no (valid) value for the key
+     */
+    Optional<V> take(final K key) {
+        final V value = segmentFor(key).take(key, now());
+        if (null == value) { stats.recordMiss(); } else { stats.recordHit(); }
+        return Optional.ofNullable(value);
+    }
+
+    /**
+     * Removes the given key and records the removal with the given cause, e.g.
+     * REPLACED if the TieredCache put a new value for the key in the first tier.
+     * @param key   Key to remove
+     * @param cause Cause of the removal
+     */
+    void remove(final K key, final RemovalCause cause) { segmentFor(key).remove(key, cause); }
+
+    @Override public CacheStats getStats() { return stats; }
+
+    @Override public int size() {
+        int size = 0;
+        for (Segment segment : segments) { size += segment.size(); }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes of direct memory that is allocated by the slabs.
+     * @return the number of bytes allocated off heap
+     */
+    public long getAllocatedBytes() {
+        long allocated = 0;
+        for (Segment segment : segments) { allocated += segment.allocatedBytes(); }
+        return allocated;
+    }
+
+    private Segment segmentFor(final K key) {
+        final int h = key.hashCode() * 0x9e3779b9;
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Segment[] newSegments(final int noOfSegments, final int slabsPerSegment) {
+        final Segment[] segments = new OffHeapCache.Segment[noOfSegments];
+        for (int i = 0 ; i < noOfSegments ; i++) { segments[i] = new Segment(slabsPerSegment); }
+        return segments;
+    }
+
+    private static int classOf(final int chunkSize) {
+        final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, chunkSize - 1));
+        return Math.max(0, shift - MIN_CHUNK_SHIFT);
+    }
+
+    private static long address(final int slab, final int offset) { return ((long) slab << 32) | offset; }
+
+    private static int slabOf(final long address) { return (int) (address >>> 32); }
+
+    private static int offsetOf(final long address) { return (int) address; }
+
+    private static int chunkOf(final long address, final int sizeClass) { return offsetOf(address) >>> (sizeClass + MIN_CHUNK_SHIFT); }
+
+    /**
+     * Returns the current second of the clock of this cache which stands still while
+     * the application is paused between a checkpoint and the restore.
+     */
+    private long now() { return currentSecond() - pausedSeconds; }
+
+    private static long currentSecond() { return System.currentTimeMillis() / 1000; }
+
+
+    // ******************** Internal classes **********************************
+    private final class Segment {
+        private final ReentrantLock                   lock;
+        private final Map<K, Node>                    index;
+        private final List<Slab>                      slabs;
+        private final LongStack[]                     freeChunks;
+        private final Node[]                          lruHeads;
+        private final Node[]                          lruTails;
+        private final Node[]                          buckets;
+        private final int                             bucketMask;
+        private final int                             maxSlabs;
+        private       long                            accessCounter;
+        private       long                            currentTick;
+
+
+        // ******************** Constructors **********************************
+        Segment(final int maxSlabs) {
+            this.lock       = new ReentrantLock();
+            this.index      = new HashMap<>();
+            this.slabs      = new ArrayList<>();
+            this.freeChunks = new LongStack[NO_OF_CLASSES];
+            this.lruHeads   = newNodes(NO_OF_CLASSES);
+            this.lruTails   = newNodes(NO_OF_CLASSES);
+            this.buckets     = newNodes(TimerWheel.bucketsFor(cacheTimeout));
+            this.bucketMask  = buckets.length - 1;
+            this.maxSlabs    = Math.max(1, maxSlabs);
+            this.currentTick = now();
+            for (int i = 0 ; i < NO_OF_CLASSES ; i++) { freeChunks[i] = new LongStack(); }
+        }
+
+
+        // ******************** Methods ***************************************
+        boolean containsKey(final K key, final long now) {
+            lock.lock();
+            try {
+                final Node node = index.get(key);
+                return null != node && now <= outdatedAt(node.address);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V get(final K key, final long now) {
+            lock.lock();
+            try {
+                final Node node = index.get(key);
+                if (null == node) { return null; }
+                final ByteBuffer buffer = slabs.get(slabOf(node.address)).buffer;
+                final int        offset = offsetOf(node.address);
+                if (now > buffer.getLong(offset)) {
+                    unlink(node);
+                    free(node.address);
+                    stats.recordRemoval(RemovalCause.EXPIRED);
+                    return null;
+                }
+                // The TimerWheel re-schedules the entry when it visits the old deadline
+                if (ExpiryPolicy.AFTER_ACCESS == expiryPolicy) { buffer.putLong(offset, now + cacheTimeout); }
+                moveToTail(node);
+                final int length = buffer.getInt(offset + Long.BYTES);
+                return valueCodec.read(buffer.slice(offset + HEADER_SIZE, length));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V take(final K key, final long now) {
+            lock.lock();
+            try {
+                final Node node = index.get(key);
+                if (null == node) { return null; }
+                final ByteBuffer buffer = slabs.get(slabOf(node.address)).buffer;
+                final int        offset = offsetOf(node.address);
+                final boolean    expired = now > buffer.getLong(offset);
+                final V          value   = expired ? null : valueCodec.read(buffer.slice(offset + HEADER_SIZE, buffer.getInt(offset + Long.BYTES)));
+                unlink(node);
+                free(node.address);
+                if (expired) { stats.recordRemoval(RemovalCause.EXPIRED); }
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(final K key, final V value, final int length, final long now) {
+            final int sizeClass = classOf(HEADER_SIZE + length);
+            lock.lock();
+            try {
+                /*
+                 * The node of a previous value is reused, it stays in the index and in it's
+                 * bucket of the timer wheel which re-schedules it to the new deadline when the
+                 * bucket is visited. Only if the size class changed it moves to another chunk.
+                 */
+                Node node = index.get(key);
+                if (null == node) {
+                    node = new Node(key);
+                    index.put(key, node);
+                    place(node, allocate(sizeClass), sizeClass);
+                    schedule(node, now + cacheTimeout + 1);
+                } else if (node.sizeClass != sizeClass) {
+                    displace(node);
+                    free(node.address);
+                    place(node, allocate(sizeClass), sizeClass);
+                } else {
+                    // Same size class, the chunk of the previous value is overwritten in place
+                    moveToTail(node);
+                }
+                final ByteBuffer buffer = slabs.get(slabOf(node.address)).buffer;
+                final int        offset = offsetOf(node.address);
+                buffer.putLong(offset, now + cacheTimeout);
+                buffer.putInt(offset + Long.BYTES, length);
+                valueCodec.write(buffer.slice(offset + HEADER_SIZE, length), value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(final K key, final RemovalCause cause) {
+            lock.lock();
+            try {
+                final Node node = index.get(key);
+                if (null != node) {
+                    unlink(node);
+                    free(node.address);
+                    stats.recordRemoval(cause);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Visits the buckets of the timer wheel from the last tick up to the given second,
+         * in the same way as TimerWheel.advance().
+         * @return the number of entries that have been visited
+         */
+        long clean(final long now) {
+            lock.lock();
+            try {
+                long tick    = currentTick;
+                long visited = 0;
+                if (now - tick > bucketMask) { tick = now - bucketMask - 1; }
+                while (tick < now) {
+                    tick++;
+                    currentTick = tick;
+                    final int bucket = (int) (tick & bucketMask);
+                    Node node;
+                    while (null != (node = buckets[bucket])) {
+                        unschedule(node);
+                        expire(tick, node);
+                        visited++;
+                    }
+                }
+                return visited;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                // Dropping the slabs releases the direct memory once they are garbage collected
+                index.clear();
+                slabs.clear();
+                for (LongStack stack : freeChunks) { stack.clear(); }
+                Arrays.fill(lruHeads, null);
+                Arrays.fill(lruTails, null);
+                Arrays.fill(buckets, null);
+                currentTick = now();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return index.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long allocatedBytes() {
+            lock.lock();
+            try {
+                return (long) slabs.size() * SLAB_SIZE;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long outdatedAt(final long address) { return slabs.get(slabOf(address)).buffer.getLong(offsetOf(address)); }
+
+        /**
+         * Will be called by clean() for every entry in a bucket that is due, entries
+         * that have been read or put in the meantime will be re-scheduled.
+         */
+        private void expire(final long tick, final Node node) {
+            final long outdatedAt = outdatedAt(node.address);
+            if (tick > outdatedAt) {
+                unlink(node);
+                free(node.address);
+                stats.recordRemoval(RemovalCause.EXPIRED);
+            } else {
+                schedule(node, outdatedAt + 1);
+            }
+        }
+
+        // Adds the given node to the bucket of the second in which it has to be checked, like TimerWheel.schedule()
+        private void schedule(final Node node, final long deadline) {
+            final long scheduledAt = Math.max(currentTick + 1, Math.min(deadline, currentTick + bucketMask));
+            final int  bucket      = (int) (scheduledAt & bucketMask);
+            node.scheduledAt = scheduledAt;
+            node.wheelPrev   = null;
+            node.wheelNext   = buckets[bucket];
+            if (null != node.wheelNext) { node.wheelNext.wheelPrev = node; }
+            buckets[bucket] = node;
+        }
+
+        private void unschedule(final Node node) {
+            if (null == node.wheelPrev) {
+                final int bucket = (int) (node.scheduledAt & bucketMask);
+                if (buckets[bucket] == node) { buckets[bucket] = node.wheelNext; }
+            } else {
+                node.wheelPrev.wheelNext = node.wheelNext;
+            }
+            if (null != node.wheelNext) { node.wheelNext.wheelPrev = node.wheelPrev; }
+            node.wheelPrev = null;
+            node.wheelNext = null;
+        }
+
+        /**
+         * Returns the address of a free chunk of the given size class, if there is
+         * no free chunk and no new slab can be allocated, the least recently used
+         * entry of the same size class will be evicted. If there is no entry of the
+         * same size class, the slab of the least recently used entry will be assigned
+         * to the size class.
+         */
+        private long allocate(final int sizeClass) {
+            final LongStack free = freeChunks[sizeClass];
+            if (!free.isEmpty()) { return free.pop(); }
+            if (slabs.size() < maxSlabs) {
+                slabs.add(new Slab(ByteBuffer.allocateDirect(SLAB_SIZE), sizeClass));
+                return carve(slabs.size() - 1, sizeClass);
+            }
+            final Node eldest = lruHeads[sizeClass];
+            if (null != eldest) {
+                unlink(eldest);
+                stats.recordRemoval(RemovalCause.SIZE);
+                return eldest.address;
+            }
+            // No entry of this size class, reassign the slab of the least recently used entry
+            Node lru = null;
+            for (Node head : lruHeads) {
+                if (null != head && (null == lru || head.accessedAt < lru.accessedAt)) { lru = head; }
+            }
+            // Without any entry all chunks are free, but on the lists of other size classes
+            final int  slabIndex = null == lru ? 0 : slabOf(lru.address);
+            final Slab slab      = slabs.get(slabIndex);
+            for (Node node : slab.nodes) {
+                if (null == node) { continue; }
+                unlink(node);
+                stats.recordRemoval(RemovalCause.SIZE);
+            }
+            freeChunks[slab.sizeClass].removeIf(address -> slabOf(address) == slabIndex);
+            slabs.set(slabIndex, new Slab(slab.buffer, sizeClass));
+            return carve(slabIndex, sizeClass);
+        }
+
+        /**
+         * Cuts the given slab into chunks of the given size class, puts them on the
+         * free list and returns the address of the first chunk.
+         */
+        private long carve(final int slabIndex, final int sizeClass) {
+            final int       chunkSize = 1 << (sizeClass + MIN_CHUNK_SHIFT);
+            final LongStack free      = freeChunks[sizeClass];
+            for (int offset = SLAB_SIZE - chunkSize ; offset > 0 ; offset -= chunkSize) { free.push(address(slabIndex, offset)); }
+            return address(slabIndex, 0);
+        }
+
+        private void free(final long address) { freeChunks[slabs.get(slabOf(address)).sizeClass].push(address); }
+
+        // Puts the given node in the chunk at the given address and at the end of the LRU list of the size class
+        private void place(final Node node, final long address, final int sizeClass) {
+            node.address   = address;
+            node.sizeClass = sizeClass;
+            slabs.get(slabOf(address)).nodes[chunkOf(address, sizeClass)] = node;
+            moveToTail(node);
+        }
+
+        // Removes the given node from it's chunk and the LRU list, the chunk is not freed
+        private void displace(final Node node) {
+            slabs.get(slabOf(node.address)).nodes[chunkOf(node.address, node.sizeClass)] = null;
+            detach(node);
+        }
+
+        // Removes the given node from the index, it's chunk, the LRU list and the timer wheel
+        private void unlink(final Node node) {
+            index.remove(node.key);
+            displace(node);
+            unschedule(node);
+        }
+
+        private void moveToTail(final Node node) {
+            detach(node);
+            final Node tail = lruTails[node.sizeClass];
+            node.prev = tail;
+            if (null == tail) { lruHeads[node.sizeClass] = node; } else { tail.next = node; }
+            lruTails[node.sizeClass] = node;
+            node.accessedAt = ++accessCounter;
+        }
+
+        private void detach(final Node node) {
+            if (null == node.prev) {
+                if (lruHeads[node.sizeClass] == node) { lruHeads[node.sizeClass] = node.next; }
+            } else {
+                node.prev.next = node.next;
+            }
+            if (null == node.next) {
+                if (lruTails[node.sizeClass] == node) { lruTails[node.sizeClass] = node.prev; }
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private Node[] newNodes(final int length) { return new OffHeapCache.Node[length]; }
+    }
+
+    /**
+     * Entry of a segment, it's the element of the LRU list of it's size class and
+     * of the bucket of the timer wheel of the segment.
+     */
+    private final class Node {
+        private final K    key;
+        private       long address;
+        private       int  sizeClass;
+        private       long accessedAt;
+        private       long scheduledAt;
+        private       Node prev;
+        private       Node next;
+        private       Node wheelPrev;
+        private       Node wheelNext;
+
+
+        // ******************** Constructors **********************************
+        Node(final K key) { this.key = key; }
+    }
+
+    private final class Slab {
+        private final ByteBuffer buffer;
+        private final int        sizeClass;
+        private final Node[]     nodes;
+
+
+        // ******************** Constructors **********************************
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Slab(final ByteBuffer buffer, final int sizeClass) {
+            this.buffer    = buffer;
+            this.sizeClass = sizeClass;
+            this.nodes     = new OffHeapCache.Node[SLAB_SIZE >>> (sizeClass + MIN_CHUNK_SHIFT)];
+        }
+    }
+
+    /**
+     * Growable stack of primitive longs for the free lists, avoids boxing the addresses.
+     */
+    private static final class LongStack {
+        private long[] elements = new long[16];
+        private int    size;
+
+
+        // ******************** Methods ***************************************
+        boolean isEmpty() { return 0 == size; }
+
+        void push(final long element) {
+            if (size == elements.length) { elements = Arrays.copyOf(elements, size << 1); }
+            elements[size++] = element;
+        }
+
+        long pop() { return elements[--size]; }
+
+        void removeIf(final LongPredicate predicate) {
+            int newSize = 0;
+            for (int i = 0 ; i < size ; i++) {
+                if (!predicate.test(elements[i])) { elements[newSize++] = elements[i]; }
+            }
+            size = newSize;
+        }
+
+        void clear() { size = 0; }
+    }
+}
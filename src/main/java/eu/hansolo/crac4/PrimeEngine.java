@@ -0,0 +1,21 @@
+package eu.hansolo.crac4;
+
+import java.util.Locale;
+
+
+public enum PrimeEngine {
+    TRIAL_DIVISION,
+    SIEVE;
+
+
+    // ******************** Methods *******************************************
+    public static PrimeEngine fromText(final String text) {
+        if (null == text || text.isBlank()) { return TRIAL_DIVISION; }
+        try {
+            return PrimeEngine.valueOf(text.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown prime engine " + text + ", using " + TRIAL_DIVISION);
+            return TRIAL_DIVISION;
+        }
+    }
+}
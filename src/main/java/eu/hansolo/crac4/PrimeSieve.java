@@ -0,0 +1,153 @@
+package eu.hansolo.crac4;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+
+/**
+ * The PrimeSieve precomputes all primes up to a given limit with a segmented
+ * sieve of Eratosthenes. Only odd numbers are stored, one bit per number, so the
+ * sieve for 100_000 numbers needs about 6KB. The segments are small enough to
+ * fit into the CPU cache and are sieved in parallel on the common ForkJoinPool.
+ * After the sieve is created a check is a single bit test.
+ * To keep the values in the cache independent of the engine, the number 1 counts
+ * as prime like in Main.calcPrime().
+ * checkAll() checks a batch of numbers in parallel, reads the results from the
+ * given cache and puts the results that were not cached with one putAll() call
+ * per chunk into the cache.
+ */
+public final class PrimeSieve {
+    public  static final long   MAX_LIMIT    = Integer.MAX_VALUE;
+    private static final int    SEGMENT_BITS = 1 << 18; // 32KB per segment
+    private static final int    BATCH_SIZE   = 4_096;
+    private final        long   limit;
+    private final        long[] composites;
+
+
+    // ******************** Constructors **************************************
+    public PrimeSieve(final long limit) {
+        if (limit < 1 || limit > MAX_LIMIT) { throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT); }
+        this.limit      = limit;
+        this.composites = sieve(limit);
+    }
+
+
+    // ******************** Methods *******************************************
+    public long getLimit() { return limit; }
+
+    /**
+     * Returns true if the given number is a prime (or 1).
+     * @param number Number between 1 and the limit of the sieve
+     * @return true if the given number is a prime
+     */
+    public boolean isPrime(final long number) {
+        if (number < 1 || number > limit) { throw new IllegalArgumentException("number must be between 1 and " + limit); }
+        if (number < 3) { return true; }
+        if (0 == (number & 1)) { return false; }
+        final long bit = number >>> 1;
+        return 0 == (composites[(int) (bit >>> 6)] & (1L << bit));
+    }
+
+    /**
+     * Checks all given numbers in parallel. Numbers < 1 are no primes.
+     * @param numbers Numbers between 0 and the limit of the sieve
+     * @param cache   Cache that is checked first and filled with the computed results, might be null
+     * @return the number of primes in the given numbers
+     */
+    public int checkAll(final long[] numbers, final Cache<Long, Boolean> cache) {
+        return ForkJoinPool.commonPool().invoke(new Batch(numbers, 0, numbers.length, cache));
+    }
+
+    private boolean check(final long number, final Cache<Long, Boolean> cache, final Map<Long, Boolean> computed) {
+        if (number < 1) { return false; }
+        if (null == cache) { return isPrime(number); }
+        final Optional<Boolean> cached = cache.get(number);
+        if (cached.isPresent()) { return cached.get(); }
+        final boolean isPrime = isPrime(number);
+        computed.put(number, isPrime);
+        return isPrime;
+    }
+
+    private static long[] sieve(final long limit) {
+        // Bit i stands for the odd number 2 * i + 1
+        final long   noOfBits     = (limit >>> 1) + 1;
+        final long[] composites   = new long[(int) ((noOfBits + 63) >>> 6)];
+        final int[]  basePrimes   = basePrimes((int) Math.sqrt(limit));
+        final int    noOfSegments = (int) ((noOfBits + SEGMENT_BITS - 1) / SEGMENT_BITS);
+        // Segments start at a multiple of 64 bits, so no two segments share a word
+        IntStream.range(0, noOfSegments).parallel().forEach(segment -> {
+            final long fromBit = (long) segment * SEGMENT_BITS;
+            final long toBit   = Math.min(fromBit + SEGMENT_BITS, noOfBits);
+            final long low     = 2 * fromBit + 1;
+            final long high    = 2 * toBit - 1;
+            for (int prime : basePrimes) {
+                long multiple = (long) prime * prime;
+                if (multiple > high) { break; }
+                if (multiple < low) {
+                    multiple = (low + prime - 1) / prime * prime;
+                    if (0 == (multiple & 1)) { multiple += prime; }
+                }
+                for (long n = multiple ; n <= high ; n += 2L * prime) {
+                    final long bit = n >>> 1;
+                    composites[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+        });
+        return composites;
+    }
+
+    /**
+     * Returns the odd primes up to the given limit with a simple sieve.
+     */
+    private static int[] basePrimes(final int limit) {
+        final boolean[] composite = new boolean[limit + 1];
+        for (int i = 3 ; (long) i * i <= limit ; i += 2) {
+            if (composite[i]) { continue; }
+            for (int j = i * i ; j <= limit ; j += 2 * i) { composite[j] = true; }
+        }
+        return IntStream.iterate(3, i -> i <= limit, i -> i + 2).filter(i -> !composite[i]).toArray();
+    }
+
+
+    // ******************** Internal classes **********************************
+    private final class Batch extends RecursiveTask<Integer> {
+        // ForkJoinTask is Serializable, the batches are never serialized though
+        private static final long                 serialVersionUID = 1L;
+        private        final long[]               numbers;
+        private        final int                  from;
+        private        final int                  to;
+        private        final Cache<Long, Boolean> cache;
+
+
+        // ******************** Constructors **********************************
+        Batch(final long[] numbers, final int from, final int to, final Cache<Long, Boolean> cache) {
+            this.numbers = numbers;
+            this.from    = from;
+            this.to      = to;
+            this.cache   = cache;
+        }
+
+
+        // ******************** Methods ***************************************
+        @Override protected Integer compute() {
+            if (to - from > BATCH_SIZE) {
+                final int   middle = (from + to) >>> 1;
+                final Batch left   = new Batch(numbers, from, middle, cache);
+                left.fork();
+                final int right = new Batch(numbers, middle, to, cache).compute();
+                return right + left.join();
+            }
+            final Map<Long, Boolean> computed = new HashMap<>();
+            int primes = 0;
+            for (int i = from ; i < to ; i++) {
+                if (check(numbers[i], cache, computed)) { primes++; }
+            }
+            if (!computed.isEmpty()) { cache.putAll(computed); }
+            return primes;
+        }
+    }
+}
@@ -1,81 +1,235 @@
 package eu.hansolo.crac4;
 
+import jdk.crac.*;
+//import org.crac.*;
+
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
-public enum PropertyManager {
+/**
+ * The PropertyManager loads the crac4.properties file from the home folder.
+ * Next to the untyped properties it provides an immutable, typed Config that is
+ * created once per load and published in a volatile field, reading a value from
+ * getConfig() is just a field load and does not parse anything.
+ * If properties_reload is true a daemon thread watches the properties file and
+ * reloads it when it changes, registered ConfigListeners will be informed if the
+ * Config changed. The properties are also reloaded after a restore, so one checkpoint
+ * can be restored with different settings. Because an open WatchService would
+ * prevent a checkpoint, the watcher is stopped before the checkpoint.
+ * set() and storeProperties() write the file on a single daemon thread, which also
+ * informs the listeners in the order of the changes. So set() does not wait for the
+ * file system and a listener is never called while a lock of the PropertyManager
+ * is held. The watcher skips the events of the files that the PropertyManager wrote
+ * itself.
+ */
+public enum PropertyManager implements Resource {
     INSTANCE;
 
-    private Properties properties;
+    private static final long                 DEBOUNCE_DELAY = 100; // milliseconds
+    private final        List<ConfigListener> listeners;
+    private final        ExecutorService      executorService;
+    private volatile     Properties           properties;
+    private volatile     Config               config;
+    private volatile     FileTime             lastStored;
+    private              WatchService         watchService;
+    private              Thread               watcher;
 
 
     // ******************** Constructors **************************************
     PropertyManager() {
-        properties = new Properties();
-        // Load properties
-        final String jdkMonPropertiesFilePath = new StringBuilder(Constants.HOME_FOLDER).append(Constants.PROPERTIES_FILE_NAME).toString();
+        listeners       = new CopyOnWriteArrayList<>();
+        executorService = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "crac4-properties");
+            thread.setDaemon(true);
+            return thread;
+        });
+        properties      = loadProperties(true);
+        config          = Config.of(properties);
 
-        // Create properties file if not exists
-        Path path = Paths.get(jdkMonPropertiesFilePath);
-        if (!Files.exists(path)) { createProperties(properties); }
+        // Register this class as resource in the global context of CRaC
+        final Timeline.Span registration = Timeline.INSTANCE.begin(TimelinePhase.REGISTRATION, "PropertyManager");
+        System.out.println("Register Resource: PropertyManager");
+        Core.getGlobalContext().register(PropertyManager.this);
+        registration.end();
 
-        // Load properties file
-        try (FileInputStream jdkMonPropertiesFile = new FileInputStream(jdkMonPropertiesFilePath)) {
-            properties.load(jdkMonPropertiesFile);
-        } catch (IOException ex) {
-            System.out.println("Error reading properties file. " + ex);
-        }
+        if (config.isPropertiesReload()) { startWatching(); }
+    }
 
-        // If properties empty, fill with default values
-        if (properties.isEmpty()) {
-            createProperties(properties);
-        }
+
+    // ******************** CRaC Methods **************************************
+    @Override public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        System.out.println("beforeCheckpoint() called in PropertyManager");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.BEFORE_CHECKPOINT, "PropertyManager");
+        // Free resources or stop services
+        stopWatching();
+        // The file should be written before the checkpoint
+        awaitPendingTasks();
+        span.end();
+    }
+
+    @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
+        System.out.println("afterRestore() called in PropertyManager");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.AFTER_RESTORE, "PropertyManager");
+        // Restore resources or re-start services
+        reload();
+        if (config.isPropertiesReload()) { startWatching(); }
+        span.end();
     }
 
 
     // ******************** Methods *******************************************
+    /**
+     * Returns the typed values of the last loaded properties, use this instead of
+     * the get methods below if a value is read frequently.
+     * @return the current Config
+     */
+    public Config getConfig() { return config; }
+
     public Properties getProperties() { return properties; }
 
     public Object get(final String KEY) { return properties.getOrDefault(KEY, ""); }
     public void set(final String KEY, final String VALUE) {
         properties.setProperty(KEY, VALUE);
+        publish();
         storeProperties();
     }
 
-    public String getString(final String key) { return properties.getOrDefault(key, "").toString(); }
-    public void setString(final String key, final String value) { properties.setProperty(key, value); }
+    public String getString(final String key) { return getString(key, ""); }
+    public String getString(final String key, final String defaultValue) { return properties.getOrDefault(key, defaultValue).toString(); }
+    public void setString(final String key, final String value) { properties.setProperty(key, value); publish(); }
 
     public double getDouble(final String key) { return getDouble(key, 0); }
     public double getDouble(final String key, final double defaultValue) { return Double.parseDouble(properties.getOrDefault(key, Double.toString(defaultValue)).toString()); }
-    public void setDouble(final String key, final double value) { properties.setProperty(key, Double.toString(value)); }
+    public void setDouble(final String key, final double value) { properties.setProperty(key, Double.toString(value)); publish(); }
 
     public float getFloat(final String key) { return getFloat(key, 0); }
     public float getFloat(final String key, final float defaultValue) { return Float.parseFloat(properties.getOrDefault(key, Float.toString(defaultValue)).toString()); }
-    public void setFloat(final String key, final float value) { properties.setProperty(key, Float.toString(value)); }
+    public void setFloat(final String key, final float value) { properties.setProperty(key, Float.toString(value)); publish(); }
 
     public int getInt(final String key) { return getInt(key, 0); }
     public int getInt(final String key, final int defaultValue) { return Integer.parseInt(properties.getOrDefault(key, Integer.toString(defaultValue)).toString()); }
-    public void setInt(final String key, final int value) { properties.setProperty(key, Integer.toString(value)); }
+    public void setInt(final String key, final int value) { properties.setProperty(key, Integer.toString(value)); publish(); }
 
     public long getLong(final String key) { return getLong(key, 0); }
     public long getLong(final String key, final long defaultValue) { return Long.parseLong(properties.getOrDefault(key, Long.toString(defaultValue)).toString()); }
-    public void setLong(final String key, final long value) { properties.setProperty(key, Long.toString(value)); }
+    public void setLong(final String key, final long value) { properties.setProperty(key, Long.toString(value)); publish(); }
 
     public boolean getBoolean(final String key) { return getBoolean(key, false); }
     public boolean getBoolean(final String key, final boolean defaultValue) { return Boolean.parseBoolean(properties.getOrDefault(key, Boolean.toString(defaultValue)).toString()); }
-    public void setBoolean(final String key, final boolean value) { properties.setProperty(key, Boolean.toString(value)); }
+    public void setBoolean(final String key, final boolean value) { properties.setProperty(key, Boolean.toString(value)); publish(); }
 
     public boolean hasKey(final String key) { return properties.containsKey(key); }
 
+    public void addConfigListener(final ConfigListener listener) { listeners.add(listener); }
+    public void removeConfigListener(final ConfigListener listener) { listeners.remove(listener); }
+
+    /**
+     * Reads the properties file again and informs the listeners if the Config
+     * changed. If the file does not exist (e.g. while an editor replaces it)
+     * the current properties will be kept.
+     */
+    public synchronized void reload() {
+        final Properties loaded = loadProperties(false);
+        if (null == loaded) { return; }
+        properties = loaded;
+        publish();
+    }
+
+    public synchronized void startWatching() {
+        if (null != watcher) { return; }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Paths.get(Constants.HOME_FOLDER).register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.out.println("Error watching properties file. " + e);
+            closeWatchService();
+            return;
+        }
+        final WatchService service = watchService;
+        watcher = new Thread(() -> watch(service), "crac4-properties-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        System.out.println("Watching " + Constants.HOME_FOLDER + Constants.PROPERTIES_FILE_NAME);
+    }
 
-    public void storeProperties() {
+    public void stopWatching() throws InterruptedException {
+        final Thread thread;
+        synchronized (this) {
+            if (null == watcher) { return; }
+            thread  = watcher;
+            watcher = null;
+            // Closing the WatchService ends the watcher thread
+            closeWatchService();
+        }
+        // Outside of the lock because the watcher might wait for it in reload()
+        thread.join(1000);
+    }
+
+    public synchronized boolean isWatching() { return null != watcher; }
+
+    /**
+     * Writes the properties to the file, asynchronously by the thread of the
+     * PropertyManager.
+     */
+    public void storeProperties() { executorService.execute(() -> writeProperties()); }
+
+    /**
+     * Resets all properties to their default values, writes them to the file and
+     * informs the listeners if the Config changed.
+     */
+    public void resetSearchPathProperty() {
+        createProperties(properties);
+        publish();
+    }
+
+
+    // ******************** Properties ****************************************
+    private void publish() {
+        final Config oldConfig;
+        final Config newConfig;
+        synchronized (this) {
+            oldConfig = config;
+            newConfig = Config.of(properties);
+            config    = newConfig;
+        }
+        if (oldConfig.equals(newConfig)) { return; }
+        System.out.println("Config changed: " + newConfig);
+        // Outside of the lock, the executor keeps the order of the changes
+        executorService.execute(() -> notifyListeners(oldConfig, newConfig));
+    }
+
+    private void notifyListeners(final Config oldConfig, final Config newConfig) {
+        for (ConfigListener listener : listeners) {
+            try {
+                listener.onConfigChanged(oldConfig, newConfig);
+            } catch (RuntimeException e) {
+                System.out.println("Error in config listener. " + e);
+            }
+        }
+    }
+
+    private void writeProperties() {
         if (null == properties) { return; }
         final String propFilePath = new StringBuilder(Constants.HOME_FOLDER).append(Constants.PROPERTIES_FILE_NAME).toString();
         try (OutputStream output = new FileOutputStream(propFilePath)) {
@@ -83,23 +237,98 @@ public enum PropertyManager {
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+        stored(Paths.get(propFilePath));
     }
 
-    public void resetSearchPathProperty() {
-        final String propFilePath = new StringBuilder(Constants.HOME_FOLDER).append(Constants.PROPERTIES_FILE_NAME).toString();
-        try (OutputStream output = new FileOutputStream(propFilePath)) {
-            properties.put(Constants.INTERVAL, Main.DEFAULT_INTERVAL);
-            properties.put(Constants.INITIAL_CACHE_CLEAN_DELAY, GenericCache.DEFAULT_CACHE_DELAY);
-            properties.put(Constants.CACHE_TIMEOUT, GenericCache.DEFAULT_CACHE_TIMEOUT);
-            properties.put(Constants.CLEANUP, Boolean.FALSE);
-            properties.store(output, null);
+    // Remembers the modification time of the file the PropertyManager wrote, the watcher will skip it
+    private void stored(final Path path) {
+        try {
+            lastStored = Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            lastStored = null;
+        }
+    }
+
+    private boolean isStoredByThis(final Path path) {
+        final FileTime stored = lastStored;
+        try {
+            return null != stored && stored.equals(Files.getLastModifiedTime(path));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void awaitPendingTasks() throws InterruptedException {
+        try {
+            executorService.submit(() -> {}).get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            System.out.println("Error waiting for the properties file to be written. " + e);
+        }
+    }
+
+    private Properties loadProperties(final boolean create) {
+        final Properties loaded                   = new Properties();
+        final String     jdkMonPropertiesFilePath = new StringBuilder(Constants.HOME_FOLDER).append(Constants.PROPERTIES_FILE_NAME).toString();
+
+        // Create properties file if not exists
+        Path path = Paths.get(jdkMonPropertiesFilePath);
+        if (!Files.exists(path)) {
+            if (!create) { return null; }
+            createProperties(loaded);
+        }
+
+        // Load properties file
+        try (FileInputStream jdkMonPropertiesFile = new FileInputStream(jdkMonPropertiesFilePath)) {
+            loaded.load(jdkMonPropertiesFile);
         } catch (IOException ex) {
-            ex.printStackTrace();
+            System.out.println("Error reading properties file. " + ex);
+            if (!create) { return null; }
+        }
+
+        // If properties empty, fill with default values
+        if (loaded.isEmpty()) {
+            if (!create) { return null; }
+            createProperties(loaded);
+        }
+        return loaded;
+    }
+
+    private void watch(final WatchService service) {
+        final Path fileName       = Paths.get(Constants.PROPERTIES_FILE_NAME);
+        final Path propertiesFile = Paths.get(Constants.HOME_FOLDER).resolve(fileName);
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) { changed = true; }
+                }
+                key.reset();
+                if (!changed) { continue; }
+                // Editors often write a file in several steps, wait until there are no more events
+                while (null != (key = service.poll(DEBOUNCE_DELAY, TimeUnit.MILLISECONDS))) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                // The properties of a file that was written by set() are already published
+                if (isStoredByThis(propertiesFile)) { continue; }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watching was stopped
         }
     }
 
+    private void closeWatchService() {
+        if (null == watchService) { return; }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Error closing WatchService. " + e);
+        }
+        watchService = null;
+    }
 
-    // ******************** Properties ****************************************
     private void createProperties(Properties properties) {
         final String propFilePath = new StringBuilder(Constants.HOME_FOLDER).append(Constants.PROPERTIES_FILE_NAME).toString();
         try (OutputStream output = new FileOutputStream(propFilePath)) {
@@ -107,9 +336,29 @@ public enum PropertyManager {
             properties.put(Constants.INITIAL_CACHE_CLEAN_DELAY, Long.toString(GenericCache.DEFAULT_CACHE_DELAY));
             properties.put(Constants.CACHE_TIMEOUT, Long.toString(GenericCache.DEFAULT_CACHE_TIMEOUT));
             properties.put(Constants.CLEANUP, Boolean.toString(Boolean.FALSE));
+            properties.put(Constants.CACHE_TYPE, CacheType.GENERIC.name().toLowerCase());
+            properties.put(Constants.CACHE_EXPIRY, ExpiryPolicy.AFTER_ACCESS.name().toLowerCase());
+            properties.put(Constants.CACHE_MAXIMUM_SIZE, Long.toString(BoundedCache.DEFAULT_MAXIMUM_SIZE));
+            properties.put(Constants.CACHE_SHARDS, Integer.toString(ShardedCache.DEFAULT_NO_OF_SHARDS));
+            properties.put(Constants.SHARED_FILE, Constants.DEFAULT_SHARED_FILE);
+            properties.put(Constants.SHARED_CAPACITY, Integer.toString(SharedCache.DEFAULT_CAPACITY));
+            properties.put(Constants.OFFHEAP_CAPACITY, Long.toString(OffHeapCache.DEFAULT_CAPACITY));
+            properties.put(Constants.OFFHEAP_CACHE_TIMEOUT, Long.toString(GenericCache.DEFAULT_CACHE_TIMEOUT * 10));
+            properties.put(Constants.SNAPSHOT, Boolean.toString(Boolean.FALSE));
+            properties.put(Constants.SNAPSHOT_FILE, Constants.DEFAULT_SNAPSHOT_FILE);
+            properties.put(Constants.SNAPSHOT_DROP, Boolean.toString(Boolean.FALSE));
+            properties.put(Constants.PRIME_ENGINE, PrimeEngine.TRIAL_DIVISION.name().toLowerCase());
+            properties.put(Constants.AUTO_CHECKPOINT, Boolean.toString(Boolean.FALSE));
+            properties.put(Constants.WARMUP_FILL_RATIO, Double.toString(WarmupController.DEFAULT_FILL_RATIO));
+            properties.put(Constants.WARMUP_HIT_RATE, Double.toString(WarmupController.DEFAULT_HIT_RATE));
+            properties.put(Constants.WARMUP_JIT_QUIET_PERIOD, Long.toString(WarmupController.DEFAULT_JIT_QUIET_PERIOD));
+            properties.put(Constants.PROPERTIES_RELOAD, Boolean.toString(Boolean.FALSE));
+            properties.put(Constants.TIMELINE, Boolean.toString(Boolean.FALSE));
+            properties.put(Constants.TIMELINE_FOLDER, Constants.HOME_FOLDER);
             properties.store(output, null);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+        stored(Paths.get(propFilePath));
     }
 }
@@ -0,0 +1,19 @@
+package eu.hansolo.crac4;
+
+/**
+ * The reason why an entry was removed from a cache.
+ * EXPIRED   : the entry was not written (or read) within the cache timeout
+ * SIZE      : the entry was evicted because the cache reached it's maximum size
+ * EXPLICIT  : the entry was removed by calling remove()
+ * REPLACED  : the value of the entry was replaced by a put() for the same key
+ * CHECKPOINT: the entry was dropped before a checkpoint (snapshots with dropOnCheckpoint)
+ * CLEARED   : the entry was removed by calling clear()
+ */
+public enum RemovalCause {
+    EXPIRED,
+    SIZE,
+    EXPLICIT,
+    REPLACED,
+    CHECKPOINT,
+    CLEARED
+}
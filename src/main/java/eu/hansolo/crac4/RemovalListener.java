@@ -0,0 +1,18 @@
+package eu.hansolo.crac4;
+
+import java.util.List;
+
+
+/**
+ * A RemovalListener will be informed about removed cache entries, e.g. to release
+ * resources that are tied to the values. The notifications are delivered
+ * asynchronously in batches by the CacheEventDispatcher of the cache, so the
+ * listener never blocks the threads that write to or clean the cache.
+ * The given list will be reused after the call returns, it must not be kept.
+ * @param <K> Key
+ * @param <V> Value
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+    void onRemoval(List<RemovalNotification<K, V>> notifications);
+}
@@ -0,0 +1,30 @@
+package eu.hansolo.crac4;
+
+/**
+ * A removed entry of a cache with the reason why it was removed.
+ * @param <K> Key
+ * @param <V> Value
+ */
+public final class RemovalNotification<K, V> {
+    private final K            key;
+    private final V            value;
+    private final RemovalCause cause;
+
+
+    // ******************** Constructors **************************************
+    public RemovalNotification(final K key, final V value, final RemovalCause cause) {
+        this.key   = key;
+        this.value = value;
+        this.cause = cause;
+    }
+
+
+    // ******************** Methods *******************************************
+    public K getKey() { return key; }
+
+    public V getValue() { return value; }
+
+    public RemovalCause getCause() { return cause; }
+
+    @Override public String toString() { return new StringBuilder().append(key).append("=").append(value).append(" (").append(cause).append(")").toString(); }
+}
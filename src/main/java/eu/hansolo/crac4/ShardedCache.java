@@ -0,0 +1,105 @@
+package eu.hansolo.crac4;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+
+/**
+ * The ShardedCache splits the keys into a number of independent GenericCaches
+ * (shards). Every shard has it's own map, TimerWheel and maintenance, so
+ * writes to different shards do not contend with each other and clean() of one
+ * shard only blocks the writers of that shard, which lets the write throughput
+ * and the clean-up scale with the number of cores.
+ * The shard of a key is selected with the high bits of the scrambled hash code,
+ * the ConcurrentHashMap of the shard uses the low bits, so the keys of one shard
+ * are still spread over all bins of it's map.
+ * All shards record their statistics in one shared CacheStats.
+ * @param <K> Key
+ * @param <V> Value to cache for the key
+ */
+public class ShardedCache<K, V> implements Cache<K, V> {
+    public  static final int                  DEFAULT_NO_OF_SHARDS = 16;
+    public  static final int                  MAX_NO_OF_SHARDS     = 1024;
+    private static final int                  GOLDEN_RATIO         = 0x9E3779B9;
+    private final        GenericCache<K, V>[] shards;
+    private final        CacheStats           stats;
+
+
+    // ******************** Constructors **************************************
+    public ShardedCache(final long initialDelay, final long cacheTimeout) {
+        this(initialDelay, cacheTimeout, ExpiryPolicy.AFTER_ACCESS, DEFAULT_NO_OF_SHARDS);
+    }
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ShardedCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final int noOfShards) {
+        if (noOfShards < 1 || noOfShards > MAX_NO_OF_SHARDS) { throw new IllegalArgumentException("noOfShards must be between 1 and " + MAX_NO_OF_SHARDS); }
+        this.stats  = new CacheStats(() -> size());
+        this.shards = (GenericCache<K, V>[]) new GenericCache[noOfShards];
+        for (int i = 0 ; i < noOfShards ; i++) { shards[i] = new GenericCache<>(initialDelay, cacheTimeout, expiryPolicy, stats); }
+    }
+
+
+    // ******************** Cache Methods *************************************
+    @Override public boolean containsKey(final K key) { return shardFor(key).containsKey(key); }
+
+    @Override public Optional<V> get(final K key) { return shardFor(key).get(key); }
+
+    @Override public void put(final K key, final V value) { shardFor(key).put(key, value); }
+
+    @Override public void remove(final K key) { shardFor(key).remove(key); }
+
+    @Override public V getOrCompute(final K key, final Function<? super K, ? extends V> function) { return shardFor(key).getOrCompute(key, function); }
+
+    @Override public CompletableFuture<V> getOrComputeAsync(final K key, final Function<? super K, ? extends V> function, final Executor executor) {
+        return shardFor(key).getOrComputeAsync(key, function, executor);
+    }
+
+    /**
+     * Cleans all shards one after the other. Each shard is also cleaned by the
+     * MaintenanceScheduler on it's own, so there is no need to call this method
+     * periodically.
+     */
+    @Override public void clean() {
+        for (GenericCache<K, V> shard : shards) { shard.clean(); }
+    }
+
+    @Override public void clear() {
+        for (GenericCache<K, V> shard : shards) { shard.clear(); }
+    }
+
+    @Override public int size() {
+        int size = 0;
+        for (GenericCache<K, V> shard : shards) { size += shard.size(); }
+        return size;
+    }
+
+    @Override public CacheStats getStats() { return stats; }
+
+    public long getCacheTimeout() { return shards[0].getCacheTimeout(); }
+    public void setCacheTimeout(final long cacheTimeout) {
+        for (GenericCache<K, V> shard : shards) { shard.setCacheTimeout(cacheTimeout); }
+    }
+
+    /**
+     * Sets the listener in all shards, every shard delivers it's own batches.
+     */
+    public void setRemovalListener(final RemovalListener<K, V> removalListener) {
+        for (GenericCache<K, V> shard : shards) { shard.setRemovalListener(removalListener); }
+    }
+
+    /**
+     * Sets the writer in all shards, every shard calls it with it's own batches.
+     */
+    public void setCacheWriter(final CacheWriter<K, V> cacheWriter) {
+        for (GenericCache<K, V> shard : shards) { shard.setCacheWriter(cacheWriter); }
+    }
+
+    public int getNoOfShards() { return shards.length; }
+
+    private GenericCache<K, V> shardFor(final K key) {
+        // Maps the scrambled hash to [0, shards.length) by multiplication, which also works for shard counts that are no power of two
+        final long hash = (key.hashCode() * GOLDEN_RATIO) & 0xFFFF_FFFFL;
+        return shards[(int) ((hash * shards.length) >>> 32)];
+    }
+}
@@ -0,0 +1,402 @@
+package eu.hansolo.crac4;
+
+import jdk.crac.*;
+//import org.crac.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+
+/**
+ * The SharedCache is an implementation of the Cache interface for long keys that
+ * keeps all entries in a memory mapped file, so several processes on the same
+ * machine (e.g. multiple instances restored from the same checkpoint) can read and
+ * fill one cache. A process that starts with an existing file hits a warm cache
+ * immediately and the entries are not part of the heap (or the checkpoint) of any
+ * of the processes.
+ * The file contains a header and a fixed number of slots (open addressing with
+ * linear probing over at most MAX_PROBES slots). A slot contains:
+ * sequence (long), key (long), outdatedAt (long, epoch seconds), length of the
+ * value (int) and the value encoded by the given Codec (up to maxValueSize bytes).
+ * Every slot is protected by a seqlock: a writer sets the sequence to an odd value
+ * with a CAS, writes the slot and sets it to the next even value. Readers do not
+ * write at all, they read the sequence, the slot and the sequence again and retry if
+ * it has changed. A sequence of 0 marks a slot that has never been used.
+ * Because the clock has to be the same for all processes, the expiration times are
+ * epoch seconds, entries are not extended by the time between checkpoint and restore.
+ * Expired and removed slots will be reused by put(), if all slots within the probe
+ * range are in use, the entry that expires first will be replaced.
+ * getOrCompute() computes a value only once per process, concurrent callers for the
+ * same key wait for the result of the thread that computes it (like in the GenericCache).
+ * Limitations: loads are not coalesced between processes, two processes that miss
+ * the same key at the same time will both compute it. If two processes insert the
+ * same key at the same time it might end up in two slots (the second one will simply
+ * expire) and a process that dies while writing a slot leaves this slot locked until
+ * the file is deleted.
+ * @param <V> Value to cache for the key
+ */
+public class SharedCache<V> implements Resource, Cache<Long, V> {
+    public  static final int                             DEFAULT_CAPACITY = 1 << 18;
+    public  static final int                             MAGIC            = 0x43524353; // CRCS
+    public  static final int                             VERSION          = 1;
+    private static final int                             HEADER_SIZE      = 64;
+    private static final int                             MAX_PROBES       = 32;
+    private static final int                             MAX_RETRIES      = 16;
+    private static final int                             SEQUENCE         = 0;
+    private static final int                             KEY              = 8;
+    private static final int                             OUTDATED_AT      = 16;
+    private static final int                             LENGTH           = 24;
+    private static final int                             VALUE            = 28;
+    private static final long                            REMOVED          = 0;
+    private static final VarHandle                       LONGS            = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private final        Path                            file;
+    private final        int                             capacity;
+    private final        int                             maxValueSize;
+    private final        int                             slotSize;
+    private final        int                             shift;
+    private final        Codec<V>                        valueCodec;
+    private final        CacheStats                      stats;
+    private final        ExpiryPolicy                    expiryPolicy;
+    private volatile     long                            cacheTimeout;
+    private final        Map<Long, CompletableFuture<V>> loads;
+    private volatile     MappedByteBuffer                buffer;
+
+
+    // ******************** Constructors **************************************
+    public SharedCache(final Path file, final long cacheTimeout, final int maxValueSize, final Codec<V> valueCodec) {
+        this(file, cacheTimeout, ExpiryPolicy.AFTER_ACCESS, DEFAULT_CAPACITY, maxValueSize, valueCodec);
+    }
+    /**
+     * Maps the given file or creates it if it does not exist. All processes that
+     * share the file have to use the same capacity and maxValueSize.
+     * @param file         Path of the shared file
+     * @param cacheTimeout Timeout in seconds
+     * @param expiryPolicy Defines if reads extend the expiration time
+     * @param capacity     Number of slots, has to be a power of two
+     * @param maxValueSize Maximum size of an encoded value in bytes, larger values will not be cached
+     * @param valueCodec   Codec for the values
+     */
+    public SharedCache(final Path file, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final int capacity, final int maxValueSize, final Codec<V> valueCodec) {
+        if (capacity < 16 || Integer.bitCount(capacity) != 1) { throw new IllegalArgumentException("capacity must be a power of two >= 16"); }
+        if (maxValueSize < 1) { throw new IllegalArgumentException("maxValueSize must be > 0"); }
+        final int slotSize = (VALUE + maxValueSize + Long.BYTES - 1) & -Long.BYTES;
+        if (HEADER_SIZE + (long) capacity * slotSize > Integer.MAX_VALUE) { throw new IllegalArgumentException("file would be larger than 2GB"); }
+        this.file         = file;
+        this.capacity     = capacity;
+        this.maxValueSize = maxValueSize;
+        this.slotSize     = slotSize;
+        this.shift        = Long.numberOfLeadingZeros(capacity) + 1;
+        this.valueCodec   = valueCodec;
+        this.stats        = new CacheStats(() -> size());
+        this.expiryPolicy = expiryPolicy;
+        this.cacheTimeout = cacheTimeout;
+        this.loads        = new ConcurrentHashMap<>();
+        this.buffer       = map();
+
+        // Register this class as resource in the global context of CRaC
+        final Timeline.Span registration = Timeline.INSTANCE.begin(TimelinePhase.REGISTRATION, "SharedCache");
+        System.out.println("Register Resource: SharedCache");
+        Core.getGlobalContext().register(SharedCache.this);
+        registration.end();
+    }
+
+
+    // ******************** CRaC Methods **************************************
+    @Override public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        System.out.println("beforeCheckpoint() called in SharedCache");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.BEFORE_CHECKPOINT, "SharedCache");
+        // The file channel is already closed, the entries stay in the file and are not part of the checkpoint
+        span.end();
+    }
+
+    @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
+        System.out.println("afterRestore() called in SharedCache");
+        final Timeline.Span span = Timeline.INSTANCE.begin(TimelinePhase.AFTER_RESTORE, "SharedCache");
+        // Map the file again, it might have been replaced since the checkpoint was created
+        buffer = map();
+        span.end();
+    }
+
+
+    // ******************** Cache Methods *************************************
+    @Override public boolean containsKey(final Long key) { return null != read(key, false); }
+
+    @Override public Optional<V> get(final Long key) {
+        final V value = read(key, ExpiryPolicy.AFTER_ACCESS == expiryPolicy);
+        if (null == value) {
+            stats.recordMiss();
+            return Optional.empty();
+        }
+        stats.recordHit();
+        return Optional.of(value);
+    }
+
+    @Override public void put(final Long key, final V value) { write(key, value); }
+
+    /**
+     * Computes the value only once per process, another process that misses the
+     * same key at the same time will compute it too.
+     */
+    @Override public V getOrCompute(final Long key, final Function<? super Long, ? extends V> function) {
+        final Optional<V> value = get(key);
+        if (value.isPresent()) { return value.get(); }
+        final CompletableFuture<V> future   = new CompletableFuture<>();
+        final CompletableFuture<V> inFlight = loads.putIfAbsent(key, future);
+        if (null != inFlight) { return await(inFlight); }
+        return load(key, function, future);
+    }
+
+    @Override public void remove(final Long key) {
+        final MappedByteBuffer buffer = this.buffer;
+        final long             now    = now();
+        final int              start  = indexFor(key);
+        for (int i = 0 ; i < MAX_PROBES ; i++) {
+            final int  slot     = offset((start + i) & (capacity - 1));
+            final long sequence = (long) LONGS.getAcquire(buffer, slot + SEQUENCE);
+            if (0 == sequence) { return; }
+            if (1 == (sequence & 1) || buffer.getLong(slot + KEY) != key) { continue; }
+            if (!LONGS.compareAndSet(buffer, slot + SEQUENCE, sequence, sequence + 1)) { return; }
+            // Check again, the slot might have been reused before it was locked
+            final boolean removed = buffer.getLong(slot + KEY) == key && buffer.getLong(slot + OUTDATED_AT) > now;
+            if (removed) { buffer.putLong(slot + OUTDATED_AT, REMOVED); }
+            LONGS.setRelease(buffer, slot + SEQUENCE, sequence + 2);
+            if (removed) { stats.recordRemoval(RemovalCause.EXPLICIT); }
+            return;
+        }
+    }
+
+    /**
+     * Nothing to do, expired slots will be reused by put().
+     */
+    @Override public void clean() { }
+
+    /**
+     * Removes all entries from the file, which affects all processes that share it.
+     */
+    @Override public void clear() {
+        final MappedByteBuffer buffer = this.buffer;
+        for (int index = 0 ; index < capacity ; index++) {
+            final int  slot     = offset(index);
+            final long sequence = (long) LONGS.getAcquire(buffer, slot + SEQUENCE);
+            if (0 == sequence || 1 == (sequence & 1)) { continue; }
+            if (!LONGS.compareAndSet(buffer, slot + SEQUENCE, sequence, sequence + 1)) { continue; }
+            buffer.putLong(slot + OUTDATED_AT, REMOVED);
+            LONGS.setRelease(buffer, slot + SEQUENCE, sequence + 2);
+        }
+    }
+
+    /**
+     * Counts the entries of all processes that are not expired by scanning all slots,
+     * the result is only an estimate if other processes write at the same time.
+     */
+    @Override public int size() {
+        final MappedByteBuffer buffer = this.buffer;
+        final long             now    = now();
+        int size = 0;
+        for (int index = 0 ; index < capacity ; index++) {
+            final int slot = offset(index);
+            if (0 != (long) LONGS.getAcquire(buffer, slot + SEQUENCE) && buffer.getLong(slot + OUTDATED_AT) > now) { size++; }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the stats of this process only.
+     */
+    @Override public CacheStats getStats() { return stats; }
+
+    public long getCacheTimeout() { return cacheTimeout; }
+    public void setCacheTimeout(final long cacheTimeout) {
+        if (cacheTimeout < 1) { throw new IllegalArgumentException("cacheTimeout must be > 0"); }
+        this.cacheTimeout = cacheTimeout;
+    }
+
+    public Path getFile() { return file; }
+
+    public int getCapacity() { return capacity; }
+
+
+    // ******************** Internal Methods **********************************
+    private V read(final long key, final boolean touch) {
+        final MappedByteBuffer buffer = this.buffer;
+        final long             now    = now();
+        final int              start  = indexFor(key);
+        for (int i = 0 ; i < MAX_PROBES ; i++) {
+            final int slot = offset((start + i) & (capacity - 1));
+            for (int retry = 0 ; retry < MAX_RETRIES ; retry++) {
+                final long sequence = (long) LONGS.getAcquire(buffer, slot + SEQUENCE);
+                // A slot that was never used ends the probe sequence
+                if (0 == sequence) { return null; }
+                if (1 == (sequence & 1)) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                final long slotKey    = buffer.getLong(slot + KEY);
+                final long outdatedAt = buffer.getLong(slot + OUTDATED_AT);
+                byte[]     bytes      = null;
+                if (slotKey == key && outdatedAt > now) {
+                    final int length = buffer.getInt(slot + LENGTH);
+                    if (length > 0 && length <= maxValueSize) {
+                        bytes = new byte[length];
+                        buffer.get(slot + VALUE, bytes);
+                    }
+                }
+                // Make sure the slot was not changed while it was read
+                VarHandle.acquireFence();
+                if (sequence != (long) LONGS.getVolatile(buffer, slot + SEQUENCE)) { continue; }
+                if (slotKey != key) { break; }
+                if (null == bytes) { return null; }
+                if (touch) {
+                    // Only moves forward and at most once per second, a failed CAS means another process touched it
+                    final long deadline = now + cacheTimeout;
+                    if (deadline > outdatedAt) { LONGS.compareAndSet(buffer, slot + OUTDATED_AT, outdatedAt, deadline); }
+                }
+                return valueCodec.read(ByteBuffer.wrap(bytes));
+            }
+        }
+        return null;
+    }
+
+    private void write(final long key, final V value) {
+        final int length = valueCodec.size(value);
+        if (length > maxValueSize) { return; }
+        final MappedByteBuffer buffer         = this.buffer;
+        final long             now            = now();
+        final int              start          = indexFor(key);
+        int                    target         = -1;
+        long                   targetSequence = 0;
+        long                   targetOutdated = Long.MAX_VALUE;
+        for (int i = 0 ; i < MAX_PROBES ; i++) {
+            final int  slot     = offset((start + i) & (capacity - 1));
+            final long sequence = (long) LONGS.getAcquire(buffer, slot + SEQUENCE);
+            if (0 == sequence) {
+                // The key is not in the cache, use the empty slot if there is no free slot before it
+                if (-1 == target || targetOutdated > now) {
+                    target         = slot;
+                    targetSequence = 0;
+                    targetOutdated = REMOVED;
+                }
+                break;
+            }
+            if (1 == (sequence & 1)) { continue; }
+            final long slotKey    = buffer.getLong(slot + KEY);
+            final long outdatedAt = buffer.getLong(slot + OUTDATED_AT);
+            VarHandle.acquireFence();
+            if (sequence != (long) LONGS.getVolatile(buffer, slot + SEQUENCE)) { continue; }
+            if (slotKey == key) {
+                target         = slot;
+                targetSequence = sequence;
+                targetOutdated = REMOVED;
+                break;
+            }
+            // Otherwise remember the slot that expires first (expired and removed slots first)
+            if (outdatedAt < targetOutdated) {
+                target         = slot;
+                targetSequence = sequence;
+                targetOutdated = outdatedAt;
+            }
+        }
+        // All slots are locked by other writers or another writer was faster, it's just a cache
+        if (-1 == target || !LONGS.compareAndSet(buffer, target + SEQUENCE, targetSequence, targetSequence + 1)) { return; }
+        buffer.putLong(target + KEY, key);
+        buffer.putLong(target + OUTDATED_AT, now + cacheTimeout);
+        buffer.putInt(target + LENGTH, length);
+        valueCodec.write(buffer.duplicate().position(target + VALUE), value);
+        LONGS.setRelease(buffer, target + SEQUENCE, targetSequence + 2);
+        if (targetOutdated > now) {
+            stats.recordRemoval(RemovalCause.SIZE);
+        } else if (targetOutdated > REMOVED) {
+            stats.recordRemoval(RemovalCause.EXPIRED);
+        }
+    }
+
+    private V load(final long key, final Function<? super Long, ? extends V> function, final CompletableFuture<V> future) {
+        try {
+            // Another thread of this process or another process might have written it in the meantime
+            V value = read(key, false);
+            if (null == value) {
+                value = compute(key, function);
+                write(key, value);
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, future);
+        }
+    }
+
+    private V compute(final long key, final Function<? super Long, ? extends V> function) {
+        final long start = System.nanoTime();
+        try {
+            final V value = function.apply(key);
+            stats.recordLoad(System.nanoTime() - start);
+            return value;
+        } catch (RuntimeException | Error e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer map() {
+        final long size = HEADER_SIZE + (long) capacity * slotSize;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Only one process must initialize a new file
+            final FileLock lock = channel.lock();
+            try {
+                final long fileSize = channel.size();
+                if (0 != fileSize && size != fileSize) { throw new IOException("Shared cache file " + file + " has a different capacity"); }
+                final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                mapped.order(ByteOrder.nativeOrder());
+                if (0 == mapped.getInt(0)) {
+                    mapped.putInt(4, VERSION);
+                    mapped.putInt(8, capacity);
+                    mapped.putInt(12, slotSize);
+                    mapped.putInt(0, MAGIC);
+                } else if (MAGIC != mapped.getInt(0) || VERSION != mapped.getInt(4) || capacity != mapped.getInt(8) || slotSize != mapped.getInt(12)) {
+                    throw new IOException("Shared cache file " + file + " is not compatible");
+                }
+                // The mapping stays valid after the channel is closed, no open file is left for the checkpoint
+                return mapped;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <V> V await(final CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) { throw runtimeException; }
+            if (e.getCause() instanceof Error error) { throw error; }
+            throw e;
+        }
+    }
+
+    private int indexFor(final long key) { return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift); }
+
+    private int offset(final int index) { return HEADER_SIZE + index * slotSize; }
+
+    // Epoch seconds because the clock has to be the same for all processes
+    private static long now() { return System.currentTimeMillis() / 1000; }
+}
@@ -0,0 +1,91 @@
+package eu.hansolo.crac4;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+
+/**
+ * The TieredCache combines a size-bounded on-heap BoundedCache (first tier) with
+ * an OffHeapCache (second tier).
+ * Entries that are evicted from the first tier because of it's size or because
+ * they expired will be demoted to the second tier which usually has a larger
+ * capacity and a longer timeout. Entries that are found in the second tier will
+ * be promoted back to the first tier.
+ * With this approach only the frequently used entries stay on the heap.
+ * @param <K> Key
+ * @param <V> Value to cache for the key
+ */
+public class TieredCache<K, V> implements Cache<K, V> {
+    private final BoundedCache<K, V> firstTier;
+    private final OffHeapCache<K, V> secondTier;
+
+
+    // ******************** Constructors **************************************
+    public TieredCache(final long initialDelay, final long cacheTimeout, final long maximumSize, final long offHeapTimeout, final long offHeapCapacity, final Codec<V> valueCodec) {
+        this(initialDelay, cacheTimeout, ExpiryPolicy.AFTER_ACCESS, maximumSize, offHeapTimeout, offHeapCapacity, valueCodec);
+    }
+    public TieredCache(final long initialDelay, final long cacheTimeout, final ExpiryPolicy expiryPolicy, final long maximumSize, final long offHeapTimeout, final long offHeapCapacity, final Codec<V> valueCodec) {
+        this.secondTier = new OffHeapCache<>(initialDelay, offHeapTimeout, expiryPolicy, offHeapCapacity, valueCodec);
+        this.firstTier  = new BoundedCache<>(initialDelay, cacheTimeout, expiryPolicy, maximumSize, Weigher.singleton()) {
+            @Override protected void onRemoval(final K key, final CacheValue<V> cacheValue, final RemovalCause cause) {
+                super.onRemoval(key, cacheValue, cause);
+                // Replaced values are outdated and explicitly removed values are not wanted anymore
+                if (RemovalCause.EXPIRED == cause || RemovalCause.SIZE == cause) { secondTier.put(key, cacheValue.peekValue()); }
+            }
+        };
+    }
+
+
+    // ******************** Cache Methods *************************************
+    @Override public boolean containsKey(final K key) { return firstTier.containsKey(key) || secondTier.containsKey(key); }
+
+    @Override public Optional<V> get(final K key) {
+        final Optional<V> value = firstTier.get(key);
+        if (value.isPresent()) { return value; }
+        // Promoted entries are taken out of the second tier without recording a removal
+        final Optional<V> demoted = secondTier.take(key);
+        demoted.ifPresent(v -> firstTier.put(key, v));
+        return demoted;
+    }
+
+    @Override public V getOrCompute(final K key, final Function<? super K, ? extends V> function) {
+        // Loads are coalesced by the first tier, the second tier is checked before computing the value
+        return firstTier.getOrCompute(key, k -> {
+            final Optional<V> demoted = secondTier.take(k);
+            return demoted.isPresent() ? demoted.get() : function.apply(k);
+        });
+    }
+
+    @Override public void put(final K key, final V value) {
+        // A value in the second tier is replaced by the new value in the first tier
+        secondTier.remove(key, RemovalCause.REPLACED);
+        firstTier.put(key, value);
+    }
+
+    @Override public void remove(final K key) {
+        firstTier.remove(key);
+        secondTier.remove(key);
+    }
+
+    @Override public void clear() {
+        firstTier.clear();
+        secondTier.clear();
+    }
+
+    @Override public void clean() {
+        firstTier.clean();
+        secondTier.clean();
+    }
+
+    @Override public int size() { return firstTier.size() + secondTier.size(); }
+
+    /**
+     * Returns the stats of the first tier, hits in the second tier show up as loads
+     * of the first tier. The stats of the second tier are available via getSecondTier().
+     */
+    @Override public CacheStats getStats() { return firstTier.getStats(); }
+
+    public BoundedCache<K, V> getFirstTier() { return firstTier; }
+
+    public OffHeapCache<K, V> getSecondTier() { return secondTier; }
+}
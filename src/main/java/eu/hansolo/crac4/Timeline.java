@@ -0,0 +1,352 @@
+package eu.hansolo.crac4;
+
+import jdk.crac.*;
+import jdk.crac.management.CRaCMXBean;
+//import org.crac.*;
+//import org.crac.management.CRaCMXBean;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The Timeline records how long the phases of the startup, the checkpoint and the
+ * restore take, so that a cold start can be compared with a restore and slower
+ * builds can be spotted.
+ * There are three timelines:
+ * startup   : starts with the start of the JVM and ends after the first run
+ * checkpoint: starts with the first beforeCheckpoint() call
+ * restore   : starts with the restore of the JVM (CRaCMXBean) and ends after the first run
+ * Every phase is emitted as TimelineEvent to JFR (if a recording is running). When
+ * a timeline ends a summary is printed and if timeline is set to true in the
+ * crac4.properties, it is written as JSON to crac4-timeline-startup.json or
+ * crac4-timeline-restore.json (incl. the phases of the checkpoint) in the
+ * timeline_folder, where it can be compared to the values of other builds.
+ * All offsets are measured from the start of the timeline, phases may overlap
+ * (e.g. the registration of a cache is part of the creation of the cache).
+ * At most MAX_ENTRIES phases are kept for the summary (e.g. if a lot of caches are
+ * created), later phases are only emitted to JFR.
+ * Running flight recordings (e.g. -XX:StartFlightRecording) are stopped and written
+ * to their file before the checkpoint, because the checkpoint can not be created
+ * while the JFR repository is open. They are started again with the same settings
+ * after the restore and write to a file with the suffix -restore. This is done by
+ * a resource that is registered in jvmStarted(), so it's beforeCheckpoint() is
+ * called after and it's afterRestore() before the ones of all other resources.
+ */
+public enum Timeline {
+    INSTANCE;
+
+    public  static final String      STARTUP     = "startup";
+    public  static final String      CHECKPOINT  = "checkpoint";
+    public  static final String      RESTORE     = "restore";
+    public  static final int         MAX_ENTRIES = 10_000;
+    private final        List<Entry> entries;
+    private final        Recordings  recordings;
+    private              String      timeline;
+    private              long        anchor;
+    private              boolean     completed;
+
+
+    // ******************** Constructors **************************************
+    Timeline() {
+        entries    = new ArrayList<>();
+        recordings = new Recordings();
+        timeline   = STARTUP;
+        anchor     = anchorOf(ManagementFactory.getRuntimeMXBean().getStartTime());
+        completed  = false;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Records the time from the start of the JVM to now and registers the resource
+     * that stops the flight recordings before the checkpoint, should be called at
+     * the beginning of main() before any other resource is registered.
+     */
+    public synchronized void jvmStarted() {
+        record(TimelinePhase.JVM_START, "JVM", anchor, System.nanoTime());
+        // The global context only keeps a weak reference, the field keeps the resource alive
+        Core.getGlobalContext().register(recordings);
+    }
+
+    /**
+     * Starts a phase, the phase will be recorded when end() is called on the
+     * returned span. Phases that do not end (e.g. because of an exception) will not
+     * be recorded.
+     * The first BEFORE_CHECKPOINT phase starts the checkpoint timeline, the first
+     * AFTER_RESTORE phase starts the restore timeline.
+     * @param phase    the phase
+     * @param resource the name of the resource or component that runs the phase
+     * @return the span that has to be ended when the phase is done
+     */
+    public synchronized Span begin(final TimelinePhase phase, final String resource) {
+        if (TimelinePhase.BEFORE_CHECKPOINT == phase && !CHECKPOINT.equals(timeline)) {
+            // The startup is done, only the checkpoint is of interest from now on
+            start(CHECKPOINT, System.nanoTime());
+            entries.clear();
+        } else if (TimelinePhase.AFTER_RESTORE == phase && !RESTORE.equals(timeline)) {
+            // Keep the phases of the checkpoint, they will be part of the restore summary
+            start(RESTORE, anchorOf(restoreTime()));
+            record(TimelinePhase.RESTORE, "JVM", anchor, System.nanoTime());
+        }
+        return new Span(phase, resource, timeline, anchor);
+    }
+
+    /**
+     * Records a point in time without duration, e.g. the first cache hit.
+     * @param phase    the phase
+     * @param resource the name of the resource or component
+     */
+    public synchronized void mark(final TimelinePhase phase, final String resource) {
+        final long now = System.nanoTime();
+        record(phase, resource, now, now);
+    }
+
+    public synchronized String getTimeline() { return timeline; }
+
+    /**
+     * Returns the summary of the recorded phases of the current timeline (and of the
+     * checkpoint if it is the restore timeline) as JSON.
+     * @return the summary as JSON
+     */
+    public synchronized String toJson() {
+        final Config        config  = PropertyManager.INSTANCE.getConfig();
+        final String        version = Timeline.class.getPackage().getImplementationVersion();
+        final StringBuilder json    = new StringBuilder().append("{\n");
+        appendField(json, "timeline", timeline);
+        appendField(json, "created", Instant.now().toString());
+        appendField(json, "pid", ProcessHandle.current().pid());
+        appendField(json, "version", null == version ? "unknown" : version);
+        appendField(json, "java_version", System.getProperty("java.version"));
+        appendField(json, "java_vm_version", System.getProperty("java.vm.version"));
+        appendField(json, "cache_type", config.getCacheType().name());
+        appendField(json, "prime_engine", config.getPrimeEngine().name());
+        if (STARTUP.equals(timeline)) {
+            appendNumber(json, "jvm_start_ms", toMillis(durationOf(TimelinePhase.JVM_START)));
+        } else if (RESTORE.equals(timeline)) {
+            appendNumber(json, "checkpoint_ms", toMillis(lengthOf(CHECKPOINT)));
+            appendNumber(json, "restore_ms", toMillis(durationOf(TimelinePhase.RESTORE)));
+        }
+        appendNumber(json, "first_cache_hit_ms", toMillis(endOf(TimelinePhase.FIRST_CACHE_HIT)));
+        appendNumber(json, "first_run_ms", toMillis(endOf(TimelinePhase.FIRST_RUN)));
+        json.append("  \"phases\": [");
+        for (int i = 0 ; i < entries.size() ; i++) {
+            final Entry entry = entries.get(i);
+            json.append(0 == i ? "\n" : ",\n")
+                .append("    { \"timeline\": \"").append(entry.timeline)
+                .append("\", \"phase\": \"").append(entry.phase.getText())
+                .append("\", \"resource\": \"").append(escape(entry.resource))
+                .append("\", \"offset_ms\": ").append(toMillis(entry.offset))
+                .append(", \"duration_ms\": ").append(toMillis(entry.duration))
+                .append(" }");
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    private void start(final String timeline, final long anchor) {
+        this.timeline  = timeline;
+        this.anchor    = anchor;
+        this.completed = false;
+    }
+
+    private synchronized void end(final Span span, final long end) {
+        // Offsets are measured from the start of the timeline the span was started in
+        final Entry entry = new Entry(span.timeline, span.phase, span.resource, span.start - span.anchor, end - span.start);
+        if (entries.size() < MAX_ENTRIES) { entries.add(entry); }
+        commit(span.event, entry);
+        if (TimelinePhase.FIRST_RUN == span.phase && !completed && !CHECKPOINT.equals(timeline)) { complete(); }
+    }
+
+    private void record(final TimelinePhase phase, final String resource, final long start, final long end) {
+        final Entry entry = new Entry(timeline, phase, resource, start - anchor, end - start);
+        if (entries.size() < MAX_ENTRIES) { entries.add(entry); }
+        commit(new TimelineEvent(), entry);
+    }
+
+    private void complete() {
+        completed = true;
+        final StringBuilder summary = new StringBuilder(STARTUP.equals(timeline) ? "Startup timeline: " : "Restore timeline: ");
+        if (STARTUP.equals(timeline)) {
+            summary.append("jvm start ").append(toMillis(durationOf(TimelinePhase.JVM_START))).append(" ms");
+        } else {
+            summary.append("checkpoint ").append(toMillis(lengthOf(CHECKPOINT))).append(" ms")
+                   .append(", restore ").append(toMillis(durationOf(TimelinePhase.RESTORE))).append(" ms");
+        }
+        summary.append(", first cache hit after ").append(toMillis(endOf(TimelinePhase.FIRST_CACHE_HIT))).append(" ms")
+               .append(", first run done after ").append(toMillis(endOf(TimelinePhase.FIRST_RUN))).append(" ms");
+        System.out.println(summary);
+
+        final Config config = PropertyManager.INSTANCE.getConfig();
+        if (!config.isTimeline()) { return; }
+        final Path file = Paths.get(config.getTimelineFolder(), "crac4-timeline-" + timeline + ".json");
+        try {
+            Files.writeString(file, toJson());
+            System.out.println("Timeline written to " + file);
+        } catch (IOException e) {
+            System.out.println("Error writing timeline to " + file + ". " + e);
+        }
+    }
+
+    // Duration of the first phase of the given type in the current timeline, -1 if it was not recorded
+    private long durationOf(final TimelinePhase phase) {
+        for (Entry entry : entries) {
+            if (entry.phase == phase && entry.timeline.equals(timeline)) { return entry.duration; }
+        }
+        return -1;
+    }
+
+    // End of the first phase of the given type in the current timeline, -1 if it was not recorded
+    private long endOf(final TimelinePhase phase) {
+        for (Entry entry : entries) {
+            if (entry.phase == phase && entry.timeline.equals(timeline)) { return entry.offset + entry.duration; }
+        }
+        return -1;
+    }
+
+    // End of the last phase of the given timeline, -1 if no phase was recorded
+    private long lengthOf(final String timeline) {
+        long length = -1;
+        for (Entry entry : entries) {
+            if (entry.timeline.equals(timeline)) { length = Math.max(length, entry.offset + entry.duration); }
+        }
+        return length;
+    }
+
+    private static void commit(final TimelineEvent event, final Entry entry) {
+        if (!event.shouldCommit()) { return; }
+        event.timeline      = entry.timeline;
+        event.phase         = entry.phase.getText();
+        event.resource      = entry.resource;
+        event.offset        = entry.offset;
+        event.phaseDuration = entry.duration;
+        event.commit();
+    }
+
+    // Value of System.nanoTime() at the given epoch millis
+    private static long anchorOf(final long epochMillis) {
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - epochMillis));
+    }
+
+    private static long restoreTime() {
+        final long restoreTime = CRaCMXBean.getCRaCMXBean().getRestoreTime();
+        return restoreTime < 0 ? System.currentTimeMillis() : restoreTime;
+    }
+
+    private static String toMillis(final long nanos) { return nanos < 0 ? "-1" : String.format(Locale.US, "%.3f", nanos / 1_000_000.0); }
+
+    private static String escape(final String text) { return text.replace("\\", "\\\\").replace("\"", "\\\""); }
+
+    private static void appendField(final StringBuilder json, final String name, final String value) {
+        json.append("  \"").append(name).append("\": \"").append(escape(value)).append("\",\n");
+    }
+    private static void appendField(final StringBuilder json, final String name, final long value) {
+        json.append("  \"").append(name).append("\": ").append(value).append(",\n");
+    }
+    private static void appendNumber(final StringBuilder json, final String name, final String millis) {
+        json.append("  \"").append(name).append("\": ").append(millis).append(",\n");
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Stops the running flight recordings before the checkpoint and starts them
+     * again after the restore.
+     */
+    private static final class Recordings implements Resource {
+        private final List<Recording> stopped = new ArrayList<>();
+
+
+        @Override public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+            stopped.clear();
+            // Do not initialize JFR if no recording was started
+            if (!FlightRecorder.isInitialized()) { return; }
+            for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+                if (RecordingState.RUNNING != recording.getState()) { continue; }
+                if (null == recording.getDestination()) { recording.setDestination(Paths.get("crac4-" + recording.getId() + ".jfr")); }
+                // Writes the recording to it's destination
+                recording.stop();
+                System.out.println("Flight recording written to " + recording.getDestination() + " before checkpoint");
+                stopped.add(recording);
+            }
+            for (Recording recording : stopped) { recording.close(); }
+        }
+
+        @Override public void afterRestore(Context<? extends Resource> context) throws Exception {
+            for (Recording recording : stopped) {
+                final Recording restarted = new Recording(recording.getSettings());
+                restarted.setName(recording.getName());
+                restarted.setToDisk(recording.isToDisk());
+                restarted.setMaxAge(recording.getMaxAge());
+                restarted.setMaxSize(recording.getMaxSize());
+                restarted.setDumpOnExit(true);
+                restarted.setDestination(restoreDestination(recording.getDestination()));
+                try {
+                    restarted.start();
+                    System.out.println("Flight recording restarted after restore, will be written to " + restarted.getDestination());
+                } catch (IllegalStateException e) {
+                    restarted.close();
+                    System.out.println("Error restarting flight recording after restore. " + e);
+                }
+            }
+            stopped.clear();
+        }
+
+        // crac4.jfr -> crac4-restore.jfr
+        private static Path restoreDestination(final Path destination) {
+            final String name  = destination.getFileName().toString();
+            final int    index = name.lastIndexOf('.');
+            return destination.resolveSibling(index < 0 ? name + "-restore" : name.substring(0, index) + "-restore" + name.substring(index));
+        }
+    }
+
+    public static final class Span {
+        private final TimelinePhase phase;
+        private final String        resource;
+        private final String        timeline;
+        private final long          anchor;
+        private final long          start;
+        private final TimelineEvent event;
+
+
+        private Span(final TimelinePhase phase, final String resource, final String timeline, final long anchor) {
+            this.phase    = phase;
+            this.resource = resource;
+            this.timeline = timeline;
+            this.anchor   = anchor;
+            this.event    = new TimelineEvent();
+            this.event.begin();
+            this.start    = System.nanoTime();
+        }
+
+
+        public void end() { INSTANCE.end(this, System.nanoTime()); }
+    }
+
+    private static final class Entry {
+        private final String        timeline;
+        private final TimelinePhase phase;
+        private final String        resource;
+        private final long          offset;
+        private final long          duration;
+
+
+        private Entry(final String timeline, final TimelinePhase phase, final String resource, final long offset, final long duration) {
+            this.timeline = timeline;
+            this.phase    = phase;
+            this.resource = resource;
+            this.offset   = offset;
+            this.duration = duration;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package eu.hansolo.crac4;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * JFR event for a phase of the Timeline. The duration of the event is the time
+ * the phase took, the offset is the time from the start of the JVM (timeline
+ * startup), the first beforeCheckpoint() (timeline checkpoint) or the restore of
+ * the JVM (timeline restore) to the start of the phase.
+ * The events will only be recorded if a flight recording is running, e.g.
+ * java -XX:StartFlightRecording=filename=crac4.jfr -jar build/libs/crac4-17.0.0.jar
+ * The Timeline stops the recording before the checkpoint (crac4.jfr contains the
+ * startup and the checkpoint) and starts it again after the restore (crac4-restore.jfr).
+ */
+@Name("eu.hansolo.crac4.Timeline")
+@Label("Timeline Phase")
+@Category({ "crac4" })
+@Description("Phase of the startup, checkpoint or restore of crac4")
+@StackTrace(false)
+final class TimelineEvent extends Event {
+    @Label("Timeline")
+    String timeline;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Resource")
+    String resource;
+
+    @Label("Offset")
+    @Timespan(Timespan.NANOSECONDS)
+    long offset;
+
+    @Label("Phase Duration")
+    @Description("Duration of the phase, also set for phases that started before the event could be created (jvm_start, restore)")
+    @Timespan(Timespan.NANOSECONDS)
+    long phaseDuration;
+}
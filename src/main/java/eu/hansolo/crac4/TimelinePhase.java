@@ -0,0 +1,32 @@
+package eu.hansolo.crac4;
+
+import java.util.Locale;
+
+
+/**
+ * The phases that are recorded by the Timeline.
+ * JVM_START        : from the start of the JVM to the call of main()
+ * PROPERTIES       : loading the crac4.properties file
+ * CACHE            : creating the cache (incl. loading a snapshot)
+ * REGISTRATION     : registering a resource in the global context of CRaC
+ * FIRST_RUN        : the first run of the application after the start or the restore
+ * FIRST_CACHE_HIT  : the first hit in the cache after the start or the restore (no duration)
+ * BEFORE_CHECKPOINT: beforeCheckpoint() of a resource
+ * RESTORE          : from the restore of the JVM to the first call of afterRestore()
+ * AFTER_RESTORE    : afterRestore() of a resource
+ */
+public enum TimelinePhase {
+    JVM_START,
+    PROPERTIES,
+    CACHE,
+    REGISTRATION,
+    FIRST_RUN,
+    FIRST_CACHE_HIT,
+    BEFORE_CHECKPOINT,
+    RESTORE,
+    AFTER_RESTORE;
+
+
+    // ******************** Methods *******************************************
+    public String getText() { return name().toLowerCase(Locale.US); }
+}
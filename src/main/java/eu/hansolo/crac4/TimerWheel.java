@@ -0,0 +1,256 @@
+package eu.hansolo.crac4;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The TimerWheel is a ring of buckets where each bucket stands for one second.
+ * Keys are added to the bucket of the second in which they will expire and
+ * on every call to advance() only the buckets of the seconds that passed since
+ * the last call will be visited. With this approach the cost of a clean-up run
+ * depends on the number of keys that are due and not on the size of the cache.
+ * Deadlines that are further away than the number of buckets will be put in the
+ * last bucket that is reachable and will be re-scheduled when that bucket is visited.
+ * The wheel does not know anything about the cached values, it's up to the given
+ * visitor to decide if a due key is really expired or has to be
+ * re-scheduled (e.g. because it's expiration time was extended in the meantime).
+ * Keys of removed entries stay in their bucket until it is visited, purge() removes
+ * such stale keys from all buckets, e.g. if they outnumber the entries of the cache.
+ * A purge visits the buckets in steps and releases the lock of the wheel between the
+ * steps, so that threads which schedule keys while a purge is running can help with
+ * assistPurge(). Otherwise a single thread would have to purge the stale keys of all
+ * writers, which does not keep up if there are more writers than cores (the purge
+ * would take longer and longer because the writers add stale keys faster than it
+ * removes them).
+ * @param <K> Key
+ */
+public class TimerWheel<K> {
+    public  static final int            MIN_BUCKETS = 16;
+    public  static final int            MAX_BUCKETS = 4096;
+    private static final int            PURGE_STEP  = 256;
+    private final        Queue<K>[]     buckets;
+    private final        int            mask;
+    private final        LongAdder      noOfKeys;
+    private final        ReentrantLock  lock;
+    private volatile     long           currentTick;
+    private volatile     boolean        purging;
+    private              long           purgeTick;
+    private              long           purgeEnd;
+    private              Iterator<K>    purgeIterator;
+    private              long           purgeRemaining;
+
+
+    // ******************** Constructors **************************************
+    public TimerWheel(final long span, final long now) {
+        final int noOfBuckets = bucketsFor(span);
+        this.buckets     = newBuckets(noOfBuckets);
+        this.mask        = noOfBuckets - 1;
+        this.noOfKeys    = new LongAdder();
+        this.lock        = new ReentrantLock();
+        this.currentTick = now;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the second in which the given key will be visited the next time
+     * after it was added with the given deadline. The returned value has to be
+     * stored with the value of the key so that advance() is able to detect stale
+     * entries.
+     * The key is added without the lock, if advance() visited the bucket in the
+     * meantime the key would stay there for a whole revolution of the wheel. In this
+     * case the key is added again under the lock, the first one is stale then.
+     * @param key      Key to schedule
+     * @param deadline Second in which the key should be checked for expiration
+     * @return the second of the bucket the key was added to
+     */
+    public long schedule(final K key, final long deadline) {
+        final long tick        = currentTick;
+        final long scheduledAt = Math.max(tick + 1, Math.min(deadline, tick + mask));
+        buckets[(int) (scheduledAt & mask)].offer(key);
+        noOfKeys.increment();
+        if (currentTick < scheduledAt) { return scheduledAt; }
+        lock.lock();
+        try {
+            // advance() can not visit a bucket while the lock is held
+            final long current     = currentTick;
+            final long rescheduled = Math.max(current + 1, Math.min(deadline, current + mask));
+            buckets[(int) (rescheduled & mask)].offer(key);
+            noOfKeys.increment();
+            return rescheduled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Visits all buckets from the last tick up to the given second and calls the
+     * given visitor for every key in those buckets. The visitor has to handle
+     * the key completely, meaning to say remove it from the cache or re-schedule it.
+     * @param now     Current second
+     * @param visitor Will be called with the tick of the visited bucket and the key
+     * @return the number of keys that have been visited
+     */
+    public long advance(final long now, final BucketVisitor<K> visitor) {
+        lock.lock();
+        try {
+            long tick    = currentTick;
+            long visited = 0;
+            if (now - tick > mask) { tick = now - mask - 1; }
+            while (tick < now) {
+                tick++;
+                currentTick = tick;
+                final Queue<K> bucket = buckets[(int) (tick & mask)];
+                K key;
+                while (null != (key = bucket.poll())) {
+                    noOfKeys.decrement();
+                    visitor.visit(tick, key);
+                    visited++;
+                }
+            }
+            return visited;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all keys from the buckets for which the given filter returns true and
+     * returns when all buckets have been visited. If a purge is already running it
+     * will be continued. Keys that are scheduled concurrently might not be visited.
+     * @param filter Will be called with the tick of the bucket and the key, returns true if the key is stale
+     * @return the number of keys that have been visited by this call
+     */
+    public long purge(final BucketFilter<K> filter) {
+        long visited = 0;
+        lock.lock();
+        try {
+            if (!purging) { startPurge(); }
+        } finally {
+            lock.unlock();
+        }
+        while (purging) {
+            lock.lock();
+            try {
+                visited += purgeStep(filter, PURGE_STEP);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Helps with a running purge by visiting up to the given number of keys, returns
+     * immediately if no purge is running. Waits for the lock of the wheel, which also
+     * slows down the writers while a purge is running, so it is able to keep up.
+     * @param filter    Will be called with the tick of the bucket and the key, returns true if the key is stale
+     * @param maxVisits Maximum number of keys to visit
+     * @return the number of keys that have been visited
+     */
+    public long assistPurge(final BucketFilter<K> filter, final int maxVisits) {
+        if (!purging) { return 0; }
+        lock.lock();
+        try {
+            return purgeStep(filter, maxVisits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isPurging() { return purging; }
+
+    public long getCurrentTick() { return currentTick; }
+
+    public int getNoOfBuckets() { return buckets.length; }
+
+    /**
+     * Returns the number of keys in all buckets incl. the stale keys of removed entries.
+     * The value is an estimate if keys are scheduled concurrently.
+     */
+    public long getNoOfKeys() { return noOfKeys.sum(); }
+
+    public void clear(final long now) {
+        lock.lock();
+        try {
+            for (Queue<K> bucket : buckets) { bucket.clear(); }
+            noOfKeys.reset();
+            currentTick   = now;
+            purging       = false;
+            purgeIterator = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held, a purge visits every bucket after the current tick once
+    private void startPurge() {
+        purgeTick     = currentTick + 1;
+        purgeEnd      = currentTick + mask + 1;
+        purgeIterator = null;
+        purging       = true;
+    }
+
+    // Called with the lock held, continues with the bucket and the key where the last step stopped
+    private long purgeStep(final BucketFilter<K> filter, final int maxVisits) {
+        long visited = 0;
+        while (purging && visited < maxVisits) {
+            if (purgeTick <= currentTick) {
+                // advance() visited the bucket in the meantime, it might already contain the keys of a later second
+                purgeTick     = currentTick + 1;
+                purgeIterator = null;
+            }
+            if (purgeTick > purgeEnd) {
+                purging       = false;
+                purgeIterator = null;
+                break;
+            }
+            if (null == purgeIterator) {
+                purgeIterator  = buckets[(int) (purgeTick & mask)].iterator();
+                // No bucket had more keys, the iterator would also return the keys that are added concurrently
+                purgeRemaining = noOfKeys.sum();
+            }
+            if (purgeRemaining > 0 && purgeIterator.hasNext()) {
+                purgeRemaining--;
+                visited++;
+                if (filter.isStale(purgeTick, purgeIterator.next())) {
+                    purgeIterator.remove();
+                    noOfKeys.decrement();
+                }
+            } else {
+                purgeTick++;
+                purgeIterator = null;
+            }
+        }
+        return visited;
+    }
+
+    // Package private to size the timer wheel of the OffHeapCache in the same way
+    static int bucketsFor(final long span) {
+        final long buckets = Math.max(MIN_BUCKETS, Math.min(MAX_BUCKETS, span + 2));
+        return Integer.highestOneBit((int) (buckets - 1)) << 1;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <K> Queue<K>[] newBuckets(final int noOfBuckets) {
+        final Queue<K>[] buckets = new Queue[noOfBuckets];
+        for (int i = 0 ; i < noOfBuckets ; i++) { buckets[i] = new ConcurrentLinkedQueue<>(); }
+        return buckets;
+    }
+
+
+    // ******************** Internal classes **********************************
+    @FunctionalInterface
+    public interface BucketVisitor<K> {
+        void visit(long tick, K key);
+    }
+
+    @FunctionalInterface
+    public interface BucketFilter<K> {
+        boolean isStale(long tick, K key);
+    }
+}
@@ -0,0 +1,132 @@
+package eu.hansolo.crac4;
+
+import jdk.crac.*;
+//import org.crac.*;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+
+/**
+ * The WarmupController decides when the application is warm enough to create
+ * a checkpoint, instead of calling jcmd [pid] JDK.checkpoint by hand after a guessed
+ * number of runs. The application is warm if
+ * - the cache contains at least the given ratio of the expected number of entries
+ * - the hit rate since the last check is at least the given hit rate
+ * - the JIT compiler did not compile anything for the given number of seconds
+ * check() should be called periodically (e.g. after each run), once all thresholds
+ * are met it will call Core.checkpointRestore() in a new thread. The checkpoint is
+ * created only once, a restored process will not create another one.
+ * If the JVM does not support to monitor the compilation time, it's not possible
+ * to tell whether the JIT compiler is done. In this case a warning is printed and
+ * the checkpoint will not be created automatically, unless jitQuietPeriod is 0.
+ */
+public final class WarmupController {
+    public  static final double            DEFAULT_FILL_RATIO       = 0.95;
+    public  static final double            DEFAULT_HIT_RATE         = 0.95;
+    public  static final long              DEFAULT_JIT_QUIET_PERIOD = 10;
+    private final        Cache<?, ?>       cache;
+    private final        long              expectedSize;
+    private final        double            minFillRatio;
+    private final        double            minHitRate;
+    private final        long              jitQuietPeriod;
+    private final        CompilationMXBean compilationMXBean;
+    private final        boolean           enabled;
+    private              long              lastHitCount;
+    private              long              lastMissCount;
+    private              long              lastCompilationTime;
+    private              long              jitQuietSince;
+    private              double            fillRatio;
+    private              double            hitRate;
+    private volatile     boolean           triggered;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param cache          Cache that has to be warmed up
+     * @param expectedSize   Number of entries of a completely filled cache
+     * @param minFillRatio   Minimum ratio of size / expectedSize between 0 and 1
+     * @param minHitRate     Minimum hit rate between two checks between 0 and 1
+     * @param jitQuietPeriod Number of seconds without JIT compilation
+     */
+    public WarmupController(final Cache<?, ?> cache, final long expectedSize, final double minFillRatio, final double minHitRate, final long jitQuietPeriod) {
+        if (expectedSize < 1) { throw new IllegalArgumentException("expectedSize must be > 0"); }
+        this.cache               = cache;
+        this.expectedSize        = expectedSize;
+        this.minFillRatio        = minFillRatio;
+        this.minHitRate          = minHitRate;
+        this.jitQuietPeriod      = jitQuietPeriod;
+        this.compilationMXBean   = ManagementFactory.getCompilationMXBean();
+        this.enabled             = jitQuietPeriod <= 0 || isCompilationTimeMonitored();
+        this.lastCompilationTime = compilationTime();
+        this.jitQuietSince       = System.nanoTime();
+        if (!enabled) { System.out.println("Compilation time can not be monitored on this JVM, the checkpoint will not be created automatically"); }
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Checks the thresholds and triggers the checkpoint if all of them are met.
+     * @return true if the checkpoint was triggered by this call
+     */
+    public synchronized boolean check() {
+        if (!enabled || triggered || !isWarm()) { return false; }
+        triggered = true;
+        System.out.println("Application is warm (" + this + "), creating checkpoint");
+        // Not in the calling thread because resources (e.g. the executor of Main) might wait for it in beforeCheckpoint()
+        final Thread thread = new Thread(() -> {
+            try {
+                Core.checkpointRestore();
+            } catch (CheckpointException | RestoreException e) {
+                System.out.println("Error creating checkpoint. " + e);
+            }
+        }, "crac4-checkpoint");
+        thread.start();
+        return true;
+    }
+
+    public boolean isTriggered() { return triggered; }
+
+    /**
+     * Returns false if the checkpoint will never be triggered, because the JIT quiet
+     * period is required but the compilation time can not be monitored.
+     */
+    public boolean isEnabled() { return enabled; }
+
+    public double getFillRatio() { return fillRatio; }
+
+    public double getHitRate() { return hitRate; }
+
+    public long getJitQuietSeconds() { return (System.nanoTime() - jitQuietSince) / 1_000_000_000; }
+
+    @Override public String toString() {
+        return new StringBuilder().append("fill ratio ").append(String.format(Locale.US, "%.1f%%", fillRatio * 100))
+                                  .append(", hit rate ").append(String.format(Locale.US, "%.1f%%", hitRate * 100))
+                                  .append(", JIT quiet for ").append(getJitQuietSeconds()).append("s")
+                                  .toString();
+    }
+
+    private boolean isWarm() {
+        final CacheStats stats     = cache.getStats();
+        final long       hitCount  = stats.getHitCount();
+        final long       missCount = stats.getMissCount();
+        final long       requests  = (hitCount - lastHitCount) + (missCount - lastMissCount);
+        fillRatio     = (double) cache.size() / expectedSize;
+        hitRate       = 0 == requests ? 0 : (double) (hitCount - lastHitCount) / requests;
+        lastHitCount  = hitCount;
+        lastMissCount = missCount;
+
+        final long compilationTime = compilationTime();
+        if (compilationTime != lastCompilationTime) {
+            lastCompilationTime = compilationTime;
+            jitQuietSince       = System.nanoTime();
+        }
+        return fillRatio >= minFillRatio && hitRate >= minHitRate && getJitQuietSeconds() >= jitQuietPeriod;
+    }
+
+    private boolean isCompilationTimeMonitored() { return null != compilationMXBean && compilationMXBean.isCompilationTimeMonitoringSupported(); }
+
+    // Total time spent in JIT compilation in ms, will be constant if it can not be monitored
+    private long compilationTime() { return isCompilationTimeMonitored() ? compilationMXBean.getTotalCompilationTime() : 0; }
+}
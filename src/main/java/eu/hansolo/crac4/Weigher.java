@@ -0,0 +1,25 @@
+package eu.hansolo.crac4;
+
+/**
+ * A Weigher calculates the weight of a cache entry which will be used by the
+ * BoundedCache to decide if the cache exceeds it's maximum weight.
+ * singleton() always returns the same instance, so the BoundedCache is able to
+ * detect that the maximum weight is the maximum number of entries.
+ * @param <K> Key
+ * @param <V> Value
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+    int weigh(K key, V value);
+
+
+    @SuppressWarnings("unchecked")
+    static <K, V> Weigher<K, V> singleton() { return (Weigher<K, V>) Singleton.INSTANCE; }
+
+
+    enum Singleton implements Weigher<Object, Object> {
+        INSTANCE;
+
+        @Override public int weigh(final Object key, final Object value) { return 1; }
+    }
+}
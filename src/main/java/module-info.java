@@ -1,5 +1,7 @@
 module eu.hansolo.crac4 {
     requires java.management;
+    requires jdk.management;
+    requires jdk.jfr;
     //requires transitive org.crac;
 
 
@@ -6,6 +6,10 @@ echo "$(date +'%H:%M:%S.%3N') Call jar file"
 # Output epoch seconds before starting the application
 # java -XX:+UnlockDiagnosticVMOptions -Djdk.crac.trace-startup-time=true -XX:+CRTraceStartupTime -XX:CRaCCheckpointTo=crac-files -jar build/libs/crac4-17.0.0.jar
 
+# Record the startup timeline as JFR events (set timeline=true in crac4.properties to also get the JSON summary)
+# The recording is written to crac4.jfr before the checkpoint and started again after the restore (crac4-restore.jfr)
+# java -XX:StartFlightRecording=filename=crac4.jfr -XX:CRaCCheckpointTo=crac-files -jar build/libs/crac4-17.0.0.jar
+
 # Output compilation log that can be analyzed with JITWatch
 # java -XX:CRaCCheckpointTo=crac-files -XX:+UnlockDiagnosticVMOptions -XX:+LogCompilation -jar build/libs/crac4-17.0.0.jar
 